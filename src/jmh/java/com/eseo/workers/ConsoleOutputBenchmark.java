@@ -0,0 +1,106 @@
+package com.eseo.workers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.eseo.workers.JobWorker.TestResult;
+
+/**
+ * Parsing of the JUnit console launcher output, for the 4 tests of
+ * JavaTestProject and for larger generated runs with one test in ten failing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsoleOutputBenchmark {
+    private static final String CYAN = "\u001b[36m";
+    private static final String BLUE = "\u001b[34m";
+    private static final String RED = "\u001b[31m";
+    private static final String GREEN = "\u001b[32m";
+    private static final String RESET = "\u001b[0m";
+
+    @Param({ "4", "400", "4000" })
+    public int tests;
+
+    private List<String> outputLines;
+    private String coloredLine;
+
+    @Setup
+    public void setUp() {
+        outputLines = consoleOutput(tests);
+        coloredLine = outputLines.get(6);
+    }
+
+    @Benchmark
+    public List<TestResult> parseTestResults() {
+        return JobWorker.parseTestResults(outputLines);
+    }
+
+    @Benchmark
+    public String removeAnsiEscapeCodes() {
+        return JobWorker.removeAnsiEscapeCodes(coloredLine);
+    }
+
+    // Same layout as the console launcher with the unicode theme, ten tests per class
+    static List<String> consoleOutput(int tests) {
+        List<String> lines = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+        lines.add("");
+        lines.add("Thanks for using JUnit! Support its development at https://junit.org/sponsoring");
+        lines.add("");
+        lines.add(CYAN + "╷" + RESET);
+        lines.add(CYAN + "├─" + RESET + " " + CYAN + "JUnit Jupiter" + RESET + " " + GREEN + "✔" + RESET);
+        for (int i = 0; i < tests; i++) {
+            String className = "GeneratedTest" + (i / 10);
+            if (i % 10 == 0) {
+                lines.add(CYAN + "│  ├─" + RESET + " " + CYAN + className + RESET + " " + GREEN
+                        + "✔" + RESET);
+            }
+            String method = "test" + i + "()";
+            if (i % 10 == 3) {
+                lines.add(CYAN + "│  │  ├─" + RESET + " " + RED + method + RESET + " " + RED
+                        + "✘" + RESET + " " + RED + "expected: <1> but was: <2>" + RESET);
+                failures.add("  JUnit Jupiter:" + className + ":" + method);
+                failures.add("    MethodSource [className = 'com.example." + className + "', methodName = 'test" + i
+                        + "', methodParameterTypes = '']");
+                failures.add("    => org.opentest4j.AssertionFailedError: expected: <1> but was: <2>");
+                failures.add("       org.junit.jupiter.api.AssertionFailureBuilder.build("
+                        + "AssertionFailureBuilder.java:151)");
+                failures.add("       com.example." + className + ".test" + i + "(" + className + ".java:" + i + ")");
+            } else {
+                lines.add(CYAN + "│  │  ├─" + RESET + " " + BLUE + method + RESET + " " + GREEN
+                        + "✔" + RESET);
+            }
+        }
+        lines.add(CYAN + "├─" + RESET + " " + CYAN + "JUnit Vintage" + RESET + " " + GREEN + "✔" + RESET);
+        lines.add(CYAN + "└─" + RESET + " " + CYAN + "JUnit Platform Suite" + RESET + " " + GREEN + "✔"
+                + RESET);
+        lines.add("");
+        if (!failures.isEmpty()) {
+            lines.add("Failures (" + failures.size() / 5 + "):");
+            lines.addAll(failures);
+            lines.add("");
+        }
+        lines.add("Test run finished after 529 ms");
+        for (int i = 0; i < 12; i++) {
+            lines.add("[         0 tests found           ]");
+        }
+        return lines;
+    }
+}
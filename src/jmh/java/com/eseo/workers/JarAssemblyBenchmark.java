@@ -0,0 +1,128 @@
+package com.eseo.workers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.tools.ToolProvider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Jar assembly from a classes directory and classpath building, for
+ * JavaTestProject and for generated projects of many classes and jars. Run
+ * from the repository root, or pass -Dbenchmark.project=path/to/JavaTestProject.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JarAssemblyBenchmark {
+
+    // 0 uses JavaTestProject as it is, otherwise that many generated classes and a jar for every 50 of them
+    @Param({ "0", "2000" })
+    public int classes;
+
+    @Param({ "deflate", "store" })
+    public String compression;
+
+    @Param({ "fat", "thin" })
+    public String layout;
+
+    private Path workDir;
+    private File classesDir;
+    private File libDir;
+    private File jarFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        File project = new File(System.getProperty("benchmark.project", "JavaTestProject"));
+        workDir = Files.createTempDirectory("jar-benchmark");
+        libDir = project.toPath().resolve("lib").toFile();
+        File projectClassesDir = workDir.resolve("project-classes").toFile();
+        compileProject(project, projectClassesDir);
+        classesDir = projectClassesDir;
+        if (classes > 0) {
+            classesDir = workDir.resolve("classes").toFile();
+            libDir = workDir.resolve("lib").toFile();
+            generateProject(projectClassesDir, project, classes);
+        }
+        jarFile = workDir.resolve("output.jar").toFile();
+    }
+
+    // Jobs build in workspaces, the project has no classes of its own
+    private static void compileProject(File project, File outputDir) throws IOException {
+        List<String> arguments = new ArrayList<>(Arrays.asList("-d", outputDir.getPath(), "-cp",
+                JobWorker.buildClasspath(new File(project, "lib"))));
+        try (Stream<Path> paths = Files.walk(project.toPath().resolve("src/main"))) {
+            paths.filter(path -> path.toString().endsWith(".java")).map(Path::toString).forEach(arguments::add);
+        }
+        if (ToolProvider.getSystemJavaCompiler().run(null, null, null, arguments.toArray(new String[0])) != 0) {
+            throw new IOException("Could not compile " + project);
+        }
+    }
+
+    private void generateProject(File projectClassesDir, File project, int count) throws IOException {
+        // Real bytecode with a few bytes changed, compresses like the classes of a student project
+        byte[] template = Files.readAllBytes(
+                projectClassesDir.toPath().resolve("com/eseo/example/secret/Person.class"));
+        Random random = new Random(42);
+        for (int i = 0; i < count; i++) {
+            Path file = classesDir.toPath().resolve("com/example/p" + (i % 40) + "/Generated" + i + ".class");
+            Files.createDirectories(file.getParent());
+            byte[] bytes = template.clone();
+            for (int j = 0; j < 16; j++) {
+                bytes[10 + random.nextInt(bytes.length - 10)] = (byte) random.nextInt();
+            }
+            Files.write(file, bytes);
+        }
+        Files.createDirectories(libDir.toPath());
+        File[] jars = project.toPath().resolve("lib").toFile().listFiles((dir, name) -> name.endsWith(".jar"));
+        for (int i = 0; i < count / 50; i++) {
+            File jar = jars[i % jars.length];
+            Files.copy(jar.toPath(), libDir.toPath().resolve(i + "-" + jar.getName()),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(workDir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public File writeJarFromClassesDirectory() throws IOException {
+        JobWorker.writeJarFile(jarFile, "com.eseo.example.Main", null, classesDir, libDir,
+                JarLayout.forName(layout), JarWriter.Compression.forName(compression));
+        return jarFile;
+    }
+
+    @Benchmark
+    public String buildClasspath() {
+        return JobWorker.buildClasspath(libDir, classesDir);
+    }
+}
@@ -0,0 +1,50 @@
+package com.eseo.workers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Cost of decoding one job message: a new ObjectMapper and a raw Map for every
+ * delivery as the worker used to do, against the shared reader of JobRequest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JobRequestBenchmark {
+    private final byte[] body = ("{\"projectPath\": \"/app/JavaTestProject\", \"action\": \"junit\","
+            + " \"stream\": true, \"format\": \"json\", \"priority\": 5, \"jdk\": 11,"
+            + " \"limits\": {\"wallMs\": 5000, \"cpuMs\": 2000}}").getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public void mapperPerMessage(Blackhole blackhole) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Map<String, Object> messageMap = objectMapper.readValue(body, Map.class);
+        blackhole.consume(messageMap.get("projectPath"));
+        blackhole.consume(messageMap.getOrDefault("action", null));
+        blackhole.consume(Boolean.TRUE.equals(messageMap.get("stream")));
+        blackhole.consume(messageMap.get("format"));
+    }
+
+    @Benchmark
+    public JobRequest sharedReader() throws Exception {
+        return JobRequest.decode(body, null);
+    }
+}
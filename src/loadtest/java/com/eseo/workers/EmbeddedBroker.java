@@ -0,0 +1,60 @@
+package com.eseo.workers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.qpid.server.SystemLauncher;
+
+/**
+ * An in-memory AMQP 0-9-1 broker (Qpid Broker-J) so that the load test needs
+ * no RabbitMQ. It accepts guest/guest on the given port, like a fresh RabbitMQ.
+ */
+public class EmbeddedBroker implements AutoCloseable {
+    private final SystemLauncher launcher = new SystemLauncher();
+    private final Path workDir;
+
+    public EmbeddedBroker(int port) throws Exception {
+        workDir = Files.createTempDirectory("embedded-broker");
+        Path config = workDir.resolve("config.json");
+        Files.write(config, configuration(port).getBytes(StandardCharsets.UTF_8));
+
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("type", "Memory");
+        attributes.put("initialConfigurationLocation", config.toUri().toString());
+        attributes.put("startupLoggedToSystemOut", false);
+        attributes.put("qpid.work_dir", workDir.toString());
+        System.setProperty("qpid.work_dir", workDir.toString());
+        launcher.startup(attributes);
+        System.out.println(" [*] Embedded broker listening on port " + port);
+    }
+
+    private static String configuration(int port) {
+        return "{\n"
+                + "  \"name\": \"load-test\",\n"
+                + "  \"modelVersion\": \"9.0\",\n"
+                + "  \"authenticationproviders\": [{\n"
+                + "    \"name\": \"plain\", \"type\": \"Plain\", \"secureOnlyMechanisms\": [],\n"
+                + "    \"users\": [{\"name\": \"guest\", \"password\": \"guest\", \"type\": \"managed\"}]\n"
+                + "  }],\n"
+                + "  \"ports\": [{\n"
+                + "    \"name\": \"AMQP\", \"port\": " + port + ", \"authenticationProvider\": \"plain\",\n"
+                + "    \"protocols\": [\"AMQP_0_9_1\"],\n"
+                + "    \"virtualhostaliases\": [{\"name\": \"nameAlias\", \"type\": \"nameAlias\"},\n"
+                + "      {\"name\": \"defaultAlias\", \"type\": \"defaultAlias\"}]\n"
+                + "  }],\n"
+                + "  \"virtualhostnodes\": [{\n"
+                + "    \"name\": \"default\", \"type\": \"Memory\", \"defaultVirtualHostNode\": \"true\",\n"
+                + "    \"virtualHostInitialConfiguration\": \"{\\\"type\\\": \\\"Memory\\\"}\"\n"
+                + "  }]\n"
+                + "}\n";
+    }
+
+    @Override
+    public void close() throws IOException {
+        launcher.shutdown();
+    }
+}
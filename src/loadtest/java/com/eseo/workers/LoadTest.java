@@ -0,0 +1,302 @@
+package com.eseo.workers;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.HdrHistogram.Histogram;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+
+/**
+ * Publishes a mix of jobs on jobs_exchange, waits for their results on
+ * results_exchange and reports the throughput and the latency histograms of
+ * every action. Each job works on one of many copies of a template project
+ * whose sources differ, so builds are not all served from one cache. Settings
+ * are system properties or environment variables, like the worker's:
+ *
+ * <pre>
+ * loadtest.host / LOADTEST_HOST               broker host (localhost)
+ * loadtest.port / LOADTEST_PORT               broker port (5672)
+ * loadtest.embedded / LOADTEST_EMBEDDED       start an in-memory broker on that port (false)
+ * loadtest.worker / LOADTEST_WORKER           start a worker in this JVM (false)
+ * loadtest.jobs / LOADTEST_JOBS               jobs measured (200)
+ * loadtest.warmup / LOADTEST_WARMUP           jobs sent first and not measured (20)
+ * loadtest.concurrency / LOADTEST_CONCURRENCY jobs waiting for their result at a time (8)
+ * loadtest.mix / LOADTEST_MIX                 weight of each action (run=1,jar=1,test=1,junit=1)
+ * loadtest.variants / LOADTEST_VARIANTS       copies of the template project (20)
+ * loadtest.template / LOADTEST_TEMPLATE       template project (JavaTestProject)
+ * loadtest.timeout.ms / LOADTEST_TIMEOUT_MS   longest wait for a result (60000)
+ * loadtest.histogram / LOADTEST_HISTOGRAM     file for the full percentile distribution of all jobs
+ * </pre>
+ */
+public class LoadTest {
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final Map<String, Histogram> histograms = new TreeMap<>();
+    private final Histogram all = new Histogram(HIGHEST_MICROS, 3);
+    private final Map<String, Integer> statuses = new TreeMap<>();
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private Semaphore inFlight;
+
+    public static void main(String[] args) throws Exception {
+        new LoadTest().run();
+    }
+
+    private void run() throws Exception {
+        String host = setting("loadtest.host", "localhost");
+        int port = Integer.parseInt(setting("loadtest.port", "5672"));
+        int jobs = Integer.parseInt(setting("loadtest.jobs", "200"));
+        int warmup = Integer.parseInt(setting("loadtest.warmup", "20"));
+        int concurrency = Integer.parseInt(setting("loadtest.concurrency", "8"));
+        int variants = Integer.parseInt(setting("loadtest.variants", "20"));
+        long timeoutMillis = Long.parseLong(setting("loadtest.timeout.ms", "60000"));
+        Map<String, Integer> mix = parseMix(setting("loadtest.mix", "run=1,jar=1,test=1,junit=1"));
+        File template = new File(setting("loadtest.template", "JavaTestProject"));
+
+        EmbeddedBroker broker = null;
+        if (Boolean.parseBoolean(setting("loadtest.embedded", "false"))) {
+            broker = new EmbeddedBroker(port);
+        }
+        if (Boolean.parseBoolean(setting("loadtest.worker", "false"))) {
+            // Read by the worker configuration, which must not be loaded before this
+            System.setProperty("worker.amqp.host", host);
+            System.setProperty("worker.amqp.port", String.valueOf(port));
+            JobWorker.main(new String[0]);
+        }
+
+        List<File> projects = generateProjects(template, variants);
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost(host);
+        factory.setPort(port);
+        try (Connection connection = factory.newConnection()) {
+            Channel channel = connection.createChannel();
+            channel.exchangeDeclare("jobs_exchange", BuiltinExchangeType.TOPIC);
+            channel.exchangeDeclare(ResultPublisher.RESULT_EXCHANGE_NAME, "direct", true);
+            String replyQueue = channel.queueDeclare().getQueue();
+            channel.basicConsume(replyQueue, true, new DefaultConsumer(channel) {
+                @Override
+                public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties,
+                        byte[] body) {
+                    received(envelope.getRoutingKey(), properties, body);
+                }
+            });
+
+            inFlight = new Semaphore(concurrency);
+            List<String> actions = weightedActions(mix);
+            Random random = new Random(42);
+            long measureStart = 0;
+            int stalled = 0;
+            System.out.println(" [*] " + warmup + " warm-up jobs, then " + jobs + " jobs, " + concurrency
+                    + " at a time on " + variants + " projects");
+            for (int i = 0; i < warmup + jobs; i++) {
+                if (i == warmup) {
+                    // Warm-up results must be in before the clock starts
+                    awaitAll(concurrency, timeoutMillis);
+                    measureStart = System.nanoTime();
+                }
+                if (!inFlight.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    stalled++;
+                    System.err.println(" [!] No result within " + timeoutMillis + " ms, giving up");
+                    break;
+                }
+                String action = actions.get(random.nextInt(actions.size()));
+                String requestId = "load-" + i;
+                Map<String, Object> message = new LinkedHashMap<>();
+                message.put("projectPath", projects.get(i % projects.size()).getAbsolutePath());
+                message.put("action", action);
+                message.put("format", "json");
+                channel.queueBind(replyQueue, ResultPublisher.RESULT_EXCHANGE_NAME, requestId);
+                pending.put(requestId, new Pending(action, i >= warmup));
+                channel.basicPublish("jobs_exchange", "jobs." + action + "." + requestId, null,
+                        objectMapper.writeValueAsBytes(message));
+            }
+            awaitAll(concurrency, timeoutMillis);
+            long elapsedNanos = System.nanoTime() - measureStart;
+            report(jobs, elapsedNanos, pending.size() + stalled);
+        } finally {
+            if (broker != null) {
+                broker.close();
+            }
+        }
+        System.exit(0);
+    }
+
+    private void awaitAll(int concurrency, long timeoutMillis) throws InterruptedException {
+        if (inFlight.tryAcquire(concurrency, timeoutMillis, TimeUnit.MILLISECONDS)) {
+            inFlight.release(concurrency);
+        }
+    }
+
+    // Results come in on the connection thread one at a time
+    private void received(String requestId, AMQP.BasicProperties properties, byte[] body) {
+        Map<String, Object> headers = properties.getHeaders();
+        if (headers != null && !Boolean.TRUE.equals(headers.get("final"))) {
+            return;
+        }
+        Pending job = pending.remove(requestId);
+        if (job == null) {
+            return;
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - job.startTime);
+        if (job.measured) {
+            histograms.computeIfAbsent(job.action, action -> new Histogram(HIGHEST_MICROS, 3))
+                    .recordValue(Math.min(micros, HIGHEST_MICROS));
+            all.recordValue(Math.min(micros, HIGHEST_MICROS));
+            statuses.merge(job.action + " " + status(properties, body), 1, Integer::sum);
+        }
+        inFlight.release();
+    }
+
+    private String status(AMQP.BasicProperties properties, byte[] body) {
+        try (InputStream in = "gzip".equals(properties.getContentEncoding())
+                ? new GZIPInputStream(new ByteArrayInputStream(body)) : new ByteArrayInputStream(body)) {
+            JsonNode result = objectMapper.readTree(in);
+            return result.path("status").asText("UNKNOWN");
+        } catch (IOException e) {
+            return "UNREADABLE";
+        }
+    }
+
+    private void report(int jobs, long elapsedNanos, int lost) throws IOException {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println();
+        System.out.printf("%d jobs in %.1f s: %.1f jobs/s, %d without result%n", jobs, seconds,
+                (jobs - lost) / seconds, lost);
+        System.out.println();
+        System.out.printf("%-8s %7s %9s %9s %9s %9s %9s %9s%n", "action", "count", "mean ms", "p50", "p90", "p99",
+                "p99.9", "max");
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            printRow(entry.getKey(), entry.getValue());
+        }
+        printRow("all", all);
+        System.out.println();
+        statuses.forEach((status, count) -> System.out.printf("%-30s %7d%n", status, count));
+
+        String histogramFile = setting("loadtest.histogram", null);
+        if (histogramFile != null) {
+            try (PrintStream out = new PrintStream(histogramFile, StandardCharsets.UTF_8.name())) {
+                // Values in milliseconds, readable by the HdrHistogram plotter
+                all.outputPercentileDistribution(out, 1000.0);
+            }
+            System.out.println(" [x] Percentile distribution written to " + histogramFile);
+        }
+    }
+
+    private static void printRow(String name, Histogram histogram) {
+        System.out.printf("%-8s %7d %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f%n", name, histogram.getTotalCount(),
+                histogram.getMean() / 1000, histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(90) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0);
+    }
+
+    /**
+     * Copies of the template, each printing something else from Main and with a
+     * MainTest for the test action, in a temporary directory.
+     */
+    static List<File> generateProjects(File template, int count) throws IOException {
+        Path root = Files.createTempDirectory("load-test-projects");
+        List<File> projects = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path project = root.resolve("project-" + i);
+            copy(template.toPath(), project);
+            try (Stream<Path> paths = Files.walk(project.resolve("src/main"))) {
+                for (Path main : (Iterable<Path>) paths.filter(path -> path.endsWith("Main.java"))::iterator) {
+                    String source = new String(Files.readAllBytes(main), StandardCharsets.UTF_8);
+                    Files.write(main, source.replace("Hello World!", "Hello World " + i + "!")
+                            .getBytes(StandardCharsets.UTF_8));
+                    String mainPackage = source.startsWith("package ")
+                            ? source.substring(0, source.indexOf(';') + 1) + "\n" : "";
+                    Files.write(main.resolveSibling("MainTest.java"), (mainPackage
+                            + "public class MainTest {\n"
+                            + "    public static void main(String[] args) {\n"
+                            + "        System.out.println(\"tests " + i + "\");\n"
+                            + "    }\n"
+                            + "}\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            projects.add(project.toFile());
+        }
+        return projects;
+    }
+
+    private static void copy(Path source, Path target) throws IOException {
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path relative = source.relativize(path);
+                if (relative.startsWith("classes")) {
+                    continue;
+                }
+                Path copy = target.resolve(relative.toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(copy);
+                } else {
+                    Files.copy(path, copy);
+                }
+            }
+        }
+    }
+
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String part : mix.split(",")) {
+            String[] weight = part.trim().split("=");
+            weights.put(weight[0], weight.length > 1 ? Integer.parseInt(weight[1]) : 1);
+        }
+        return weights;
+    }
+
+    private static List<String> weightedActions(Map<String, Integer> mix) {
+        List<String> actions = new ArrayList<>();
+        mix.forEach((action, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                actions.add(action);
+            }
+        });
+        return actions;
+    }
+
+    private static String setting(String name, String defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            value = System.getenv(name.toUpperCase().replace('.', '_'));
+        }
+        return value != null ? value : defaultValue;
+    }
+
+    private static final class Pending {
+        private final String action;
+        private final boolean measured;
+        private final long startTime = System.nanoTime();
+
+        Pending(String action, boolean measured) {
+            this.action = action;
+            this.measured = measured;
+        }
+    }
+}
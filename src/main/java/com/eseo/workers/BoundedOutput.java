@@ -0,0 +1,75 @@
+package com.eseo.workers;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Output of a process kept within a fixed size: the first half of the limit is
+ * kept from the start of the output, the second half from its end, and a marker
+ * tells how much was dropped in between.
+ */
+public class BoundedOutput {
+    private final int headLimit;
+    private final ByteArrayOutputStream head = new ByteArrayOutputStream();
+    // Ring buffer of the last bytes written once the head is full
+    private final byte[] tail;
+    private int tailEnd;
+    private int tailLength;
+    private long totalBytes;
+
+    public BoundedOutput(int maxBytes) {
+        this.headLimit = maxBytes - maxBytes / 2;
+        this.tail = new byte[maxBytes / 2];
+    }
+
+    public synchronized void write(byte[] bytes, int offset, int length) {
+        totalBytes += length;
+        int toHead = Math.min(length, headLimit - head.size());
+        if (toHead > 0) {
+            head.write(bytes, offset, toHead);
+            offset += toHead;
+            length -= toHead;
+        }
+        if (length == 0 || tail.length == 0) {
+            return;
+        }
+        if (length > tail.length) {
+            offset += length - tail.length;
+            length = tail.length;
+        }
+        int first = Math.min(length, tail.length - tailEnd);
+        System.arraycopy(bytes, offset, tail, tailEnd, first);
+        System.arraycopy(bytes, offset + first, tail, 0, length - first);
+        tailEnd = (tailEnd + length) % tail.length;
+        tailLength = Math.min(tail.length, tailLength + length);
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized boolean isTruncated() {
+        return totalBytes > head.size() + tailLength;
+    }
+
+    public synchronized String toString(Charset charset) {
+        ByteArrayOutputStream kept = new ByteArrayOutputStream(head.size() + tailLength + 64);
+        kept.write(head.toByteArray(), 0, head.size());
+        if (isTruncated()) {
+            long dropped = totalBytes - head.size() - tailLength;
+            byte[] marker = (System.lineSeparator() + "... [" + dropped + " bytes truncated] ..."
+                    + System.lineSeparator()).getBytes(charset);
+            kept.write(marker, 0, marker.length);
+        }
+        int tailStart = (tailEnd - tailLength + tail.length) % Math.max(tail.length, 1);
+        int first = Math.min(tailLength, tail.length - tailStart);
+        kept.write(tail, tailStart, first);
+        kept.write(tail, 0, tailLength - first);
+        return new String(kept.toByteArray(), charset);
+    }
+
+    @Override
+    public String toString() {
+        return toString(Charset.defaultCharset());
+    }
+}
@@ -0,0 +1,316 @@
+package com.eseo.workers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * AppCDS archives of the child JVMs (runners, forked programs and tests, javac)
+ * so they map the JDK, JUnit and lib classes instead of loading them again.
+ *
+ * An archive is keyed by a name and the class path it was dumped with, which a
+ * child must start with to use it. The first child of a key records the classes
+ * it loads (-XX:DumpLoadedClassList), and once it exited the archive is dumped
+ * in the background with -Xshare:dump; later children of that key get
+ * -XX:SharedArchiveFile. A new jar, or a changed one, makes a new key, so the
+ * archive is recorded again. This works the same on JDK 11, which cannot
+ * archive classes at exit.
+ *
+ * Lib jars of projects are archived by content: children get copies of them
+ * named after their SHA-256, so projects shipping the same jars share one
+ * archive wherever they are.
+ */
+public class ClassDataArchives {
+    // Copies of lib jars no archive lists are kept that long, children may still be starting with them
+    private static final long UNLISTED_JAR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    // NEW until a child records the classes, RECORDING until its archive is dumped
+    private enum State { NEW, RECORDING, READY, FAILED }
+
+    private final File dir;
+    private final boolean enabled;
+    private final int maxArchives;
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+    // One dump at a time, they are short but use a whole core
+    private final ExecutorService dumper = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cds-dump");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ClassDataArchives(File dir, boolean enabled, int maxArchives) {
+        this.dir = dir;
+        this.enabled = enabled;
+        this.maxArchives = maxArchives;
+    }
+
+    public static ClassDataArchives fromConfig() {
+        return new ClassDataArchives(new File(WorkerConfig.CDS_DIR), WorkerConfig.CDS, WorkerConfig.CDS_MAX_ARCHIVES);
+    }
+
+    /**
+     * The archive for one child started with the given class path, its directories
+     * cannot be archived and end the archived part of the class path.
+     */
+    public Archive archive(String name, List<File> classpath) {
+        List<File> archived = new ArrayList<>();
+        for (File entry : classpath) {
+            if (!entry.isFile()) {
+                break;
+            }
+            archived.add(entry.getAbsoluteFile());
+        }
+        return new Archive(name + "-" + key(archived), archived);
+    }
+
+    /**
+     * Same, keyed on the content of the given jars: the child must start with the
+     * copies on {@link Archive#classpath()} instead of the jars themselves.
+     */
+    public Archive contentArchive(String name, List<File> jars, LibraryJarCache libraries) throws IOException {
+        if (!enabled) {
+            return archive(name, jars);
+        }
+        List<File> copies = new ArrayList<>();
+        for (File jar : jars) {
+            copies.add(copy(jar, libraries.sha256(jar)));
+        }
+        return archive(name, copies);
+    }
+
+    // Never replaced once there, the archives of a copy check its date
+    private File copy(File jar, String sha256) throws IOException {
+        File copy = new File(jarsDir(), sha256 + ".jar");
+        if (copy.isFile()) {
+            return copy;
+        }
+        Files.createDirectories(jarsDir().toPath());
+        Path partFile = Files.createTempFile(jarsDir().toPath(), sha256, ".part");
+        try {
+            Files.copy(jar.toPath(), partFile, StandardCopyOption.REPLACE_EXISTING);
+            Files.createLink(copy.toPath(), partFile);
+        } catch (FileAlreadyExistsException e) {
+            // Copied by another job meanwhile
+        } finally {
+            Files.deleteIfExists(partFile);
+        }
+        return copy;
+    }
+
+    private File jarsDir() {
+        return new File(dir, "jars").getAbsoluteFile();
+    }
+
+    private static String key(List<File> classpath) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder description = new StringBuilder(System.getProperty("java.home"))
+                    .append('\n').append(System.getProperty("java.vm.version"));
+            for (File entry : classpath) {
+                description.append('\n').append(entry.getPath())
+                        .append(':').append(entry.length())
+                        .append(':').append(entry.lastModified());
+            }
+            byte[] hash = digest.digest(description.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", hash[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void dump(Archive archive) {
+        File archiveFile = archive.file();
+        File classList = archive.classList();
+        File partFile = new File(dir, archive.key + ".jsa.part");
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-Xshare:dump");
+        command.add("-XX:SharedClassListFile=" + classList.getPath());
+        command.add("-XX:SharedArchiveFile=" + partFile.getPath());
+        if (!archive.classpath.isEmpty()) {
+            command.add("-cp");
+            command.add(archive.classpathString());
+        }
+        long startTime = System.currentTimeMillis();
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            ProcessOutput output = ProcessOutput.drain(process);
+            boolean exited = process.waitFor(5, TimeUnit.MINUTES);
+            output.await();
+            if (!exited || process.exitValue() != 0 || !partFile.isFile()) {
+                process.destroyForcibly();
+                states.put(archive.key, State.FAILED);
+                System.err.println(" [!] Could not dump class data archive " + archive.key + ": "
+                        + output.getOutputText().trim());
+                return;
+            }
+            Files.write(new File(dir, archive.key + ".jars").toPath(), archive.classpath.stream()
+                    .map(File::getName).collect(Collectors.toList()), StandardCharsets.UTF_8);
+            Files.move(partFile.toPath(), archiveFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            states.put(archive.key, State.READY);
+            System.out.println(" [x] Dumped class data archive " + archiveFile.getName() + " in "
+                    + (System.currentTimeMillis() - startTime) + " ms");
+            prune();
+        } catch (IOException e) {
+            states.put(archive.key, State.FAILED);
+            System.err.println(" [!] Could not dump class data archive " + archive.key + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            states.remove(archive.key);
+            Thread.currentThread().interrupt();
+        } finally {
+            classList.delete();
+            partFile.delete();
+        }
+    }
+
+    // Archives of lib sets no longer used go first, every use touches its archive
+    private void prune() {
+        File[] archives = dir.listFiles((parent, name) -> name.endsWith(".jsa"));
+        if (archives == null) {
+            return;
+        }
+        Arrays.sort(archives, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < archives.length - maxArchives; i++) {
+            String key = archives[i].getName().substring(0, archives[i].getName().length() - ".jsa".length());
+            states.remove(key);
+            archives[i].delete();
+            new File(dir, key + ".jars").delete();
+        }
+        pruneJars();
+    }
+
+    // Copies of lib jars go with the last archive listing them
+    private void pruneJars() {
+        File[] copies = jarsDir().listFiles((parent, name) -> name.endsWith(".jar"));
+        File[] listings = dir.listFiles((parent, name) -> name.endsWith(".jars"));
+        if (copies == null || listings == null) {
+            return;
+        }
+        Set<String> listed = new HashSet<>();
+        for (File listing : listings) {
+            try {
+                listed.addAll(Files.readAllLines(listing.toPath(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                return; // Pruned by another worker sharing the directory, nothing is deleted this time
+            }
+        }
+        long now = System.currentTimeMillis();
+        for (File copy : copies) {
+            if (!listed.contains(copy.getName()) && now - copy.lastModified() > UNLISTED_JAR_MILLIS) {
+                copy.delete();
+            }
+        }
+    }
+
+    /**
+     * The archive of one key as seen by one child.
+     */
+    public final class Archive {
+        private final String key;
+        private final List<File> classpath;
+        private boolean recording;
+
+        private Archive(String key, List<File> classpath) {
+            this.key = key;
+            this.classpath = classpath;
+        }
+
+        /**
+         * Options for the child: the archive when it is ready, or recording its
+         * classes when no other child does. Empty when archives are disabled.
+         */
+        public List<String> jvmOptions() {
+            if (!enabled) {
+                return Collections.emptyList();
+            }
+            File archiveFile = file();
+            State state = states.computeIfAbsent(key, k -> archiveFile.isFile() ? State.READY : State.NEW);
+            if (state == State.READY) {
+                if (archiveFile.setLastModified(System.currentTimeMillis())) {
+                    return Arrays.asList("-XX:SharedArchiveFile=" + archiveFile.getPath(), "-Xshare:auto",
+                            "-Xlog:cds=off", "-Xlog:class+path=off");
+                }
+                // Pruned by another worker sharing the directory
+                states.remove(key, State.READY);
+                return Collections.emptyList();
+            }
+            if (state == State.NEW && states.replace(key, State.NEW, State.RECORDING)) {
+                dir.mkdirs();
+                recording = true;
+                return Collections.singletonList("-XX:DumpLoadedClassList=" + classList().getPath());
+            }
+            return Collections.emptyList();
+        }
+
+        /**
+         * Starts the child given {@link #jvmOptions()}, the archive is dumped once
+         * it exited if it records its classes.
+         */
+        public Process start(ProcessBuilder processBuilder) throws IOException {
+            Process process;
+            try {
+                process = processBuilder.start();
+            } catch (IOException e) {
+                if (recording) {
+                    // Another child will record the classes
+                    states.replace(key, State.RECORDING, State.NEW);
+                }
+                throw e;
+            }
+            if (recording) {
+                process.onExit().thenRun(() -> dumper.execute(() -> dump(this)));
+            }
+            return process;
+        }
+
+        private File file() {
+            return new File(dir, key + ".jsa");
+        }
+
+        private File classList() {
+            return new File(dir, key + ".classlist");
+        }
+
+        /**
+         * The archived part of the class path of the child.
+         */
+        public List<File> classpath() {
+            return Collections.unmodifiableList(classpath);
+        }
+
+        private String classpathString() {
+            StringBuilder path = new StringBuilder();
+            for (File entry : classpath) {
+                if (path.length() > 0) {
+                    path.append(File.pathSeparator);
+                }
+                path.append(entry.getPath());
+            }
+            return path.toString();
+        }
+    }
+}
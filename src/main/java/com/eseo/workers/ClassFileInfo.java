@@ -0,0 +1,156 @@
+package com.eseo.workers;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What the incremental compiler needs to know about a class file: the classes
+ * it refers to, and the compile-time constants it declares (javac copies those
+ * into the classes using them, so they never show up as a reference).
+ */
+public class ClassFileInfo {
+    private static final Pattern TYPE_IN_DESCRIPTOR = Pattern.compile("L([\\w/$]+)[;<]");
+
+    private final Set<String> referencedClasses;
+    private final Map<String, Object> constants;
+
+    private ClassFileInfo(Set<String> referencedClasses, Map<String, Object> constants) {
+        this.referencedClasses = Collections.unmodifiableSet(referencedClasses);
+        this.constants = Collections.unmodifiableMap(constants);
+    }
+
+    /**
+     * Binary names (com.example.Outer$Inner) of every class mentioned in the constant pool.
+     */
+    public Set<String> getReferencedClasses() {
+        return referencedClasses;
+    }
+
+    /**
+     * Values of the static final fields initialized with a constant, by field name.
+     */
+    public Map<String, Object> getConstants() {
+        return constants;
+    }
+
+    public static ClassFileInfo parse(byte[] bytecode) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytecode));
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        int poolSize = in.readUnsignedShort();
+        String[] utf8 = new String[poolSize];
+        int[] classNameIndexes = new int[poolSize];
+        int[] stringIndexes = new int[poolSize];
+        Object[] values = new Object[poolSize];
+        for (int i = 1; i < poolSize; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+            case 1: // Utf8
+                utf8[i] = in.readUTF();
+                break;
+            case 3: // Integer
+                values[i] = in.readInt();
+                break;
+            case 4: // Float
+                values[i] = in.readFloat();
+                break;
+            case 5: // Long, takes two slots
+                values[i++] = in.readLong();
+                break;
+            case 6: // Double, takes two slots
+                values[i++] = in.readDouble();
+                break;
+            case 7: // Class
+                classNameIndexes[i] = in.readUnsignedShort();
+                break;
+            case 8: // String
+                stringIndexes[i] = in.readUnsignedShort();
+                break;
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+                in.readUnsignedShort();
+                break;
+            case 15: // MethodHandle
+                in.readUnsignedByte();
+                in.readUnsignedShort();
+                break;
+            case 9: // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 12: // NameAndType
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+                in.readInt();
+                break;
+            default:
+                throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        Set<String> referencedClasses = new HashSet<>();
+        for (int i = 1; i < poolSize; i++) {
+            if (classNameIndexes[i] != 0) {
+                String name = utf8[classNameIndexes[i]];
+                if (name.startsWith("[")) {
+                    addDescriptorTypes(name, referencedClasses);
+                } else {
+                    referencedClasses.add(name.replace('/', '.'));
+                }
+            } else if (utf8[i] != null) {
+                // Field and method descriptors, generic signatures
+                addDescriptorTypes(utf8[i], referencedClasses);
+            } else if (stringIndexes[i] != 0) {
+                values[i] = utf8[stringIndexes[i]];
+            }
+        }
+
+        in.readUnsignedShort(); // access flags
+        int thisClass = in.readUnsignedShort();
+        referencedClasses.remove(utf8[classNameIndexes[thisClass]].replace('/', '.'));
+        in.readUnsignedShort(); // super class, already in the pool
+        int interfaces = in.readUnsignedShort();
+        for (int i = 0; i < interfaces; i++) {
+            in.readUnsignedShort();
+        }
+
+        Map<String, Object> constants = new TreeMap<>();
+        int fields = in.readUnsignedShort();
+        for (int i = 0; i < fields; i++) {
+            in.readUnsignedShort(); // access flags
+            String fieldName = utf8[in.readUnsignedShort()];
+            in.readUnsignedShort(); // descriptor
+            int attributes = in.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                String attributeName = utf8[in.readUnsignedShort()];
+                int length = in.readInt();
+                if ("ConstantValue".equals(attributeName)) {
+                    int index = in.readUnsignedShort();
+                    constants.put(fieldName, values[index]);
+                } else {
+                    in.skipBytes(length);
+                }
+            }
+        }
+        return new ClassFileInfo(referencedClasses, constants);
+    }
+
+    private static void addDescriptorTypes(String descriptor, Set<String> referencedClasses) {
+        Matcher matcher = TYPE_IN_DESCRIPTOR.matcher(descriptor);
+        while (matcher.find()) {
+            referencedClasses.add(matcher.group(1).replace('/', '.'));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.eseo.workers;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of one compiler invocation.
+ */
+public class CompilationResult {
+    private final int exitCode;
+    private final List<CompileDiagnostic> diagnostics;
+    private final String output;
+    private final long compilationTime;
+
+    public CompilationResult(int exitCode, List<CompileDiagnostic> diagnostics, String output, long compilationTime) {
+        this.exitCode = exitCode;
+        this.diagnostics = Collections.unmodifiableList(diagnostics);
+        this.output = output;
+        this.compilationTime = compilationTime;
+    }
+
+    public boolean isSuccess() {
+        return exitCode == 0;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * Structured messages, only available when compiling in process.
+     */
+    public List<CompileDiagnostic> getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Compiler messages as javac would print them.
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    public long getCompilationTime() {
+        return compilationTime;
+    }
+}
@@ -0,0 +1,207 @@
+package com.eseo.workers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rabbitmq.client.AMQP;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Takes jobs over HTTP, for an API on the same host or local development
+ * without RabbitMQ. A job message is posted to /jobs, or to /jobs/{action}
+ * when it does not name its action:
+ *
+ * <pre>
+ * curl -d '{"projectPath": "/projects/p1", "format": "json"}' http://localhost:9405/jobs/run
+ * </pre>
+ *
+ * The response is the final result, encoded and compressed the way it would
+ * be published. With "stream": true it is a stream of server-sent events
+ * instead, one per streamed message ("event" being its type: stdout, stderr,
+ * diagnostic, test or result). Jobs run on the threads of the queue consumer
+ * and share its compiler, runners and caches; requests are handled as
+ * concurrently as the pool allows, on as many connections as clients open.
+ */
+public class CompileDaemon {
+    private static final AtomicLong REQUESTS = new AtomicLong();
+
+    private final HttpServer server;
+
+    public CompileDaemon(InetSocketAddress address, Executor executor) throws IOException {
+        server = HttpServer.create(address, 0);
+        server.createContext("/jobs", this::handle);
+        server.setExecutor(executor);
+    }
+
+    public static CompileDaemon fromConfig(Executor executor) throws IOException {
+        return new CompileDaemon(new InetSocketAddress(WorkerConfig.DAEMON_HOST, WorkerConfig.DAEMON_PORT),
+                executor);
+    }
+
+    public void start() {
+        server.start();
+        System.out.println(" [*] Taking jobs on http://" + WorkerConfig.DAEMON_HOST + ":" + getPort() + "/jobs");
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                respond(exchange, 405, "Jobs are posted to /jobs or /jobs/{action}");
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            String routedAction = path.length() > "/jobs/".length() ? path.substring("/jobs/".length()) : null;
+            byte[] body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = in.readAllBytes();
+            }
+            runJob(exchange, body, routedAction);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void runJob(HttpExchange exchange, byte[] body, String routedAction) throws IOException {
+        String requestId = "http-" + REQUESTS.incrementAndGet();
+        Metrics.jobStarted();
+        Profiling.Job job = Profiling.begin(requestId);
+        HttpSink sink = new HttpSink(exchange);
+        String action = routedAction;
+        String outcome = "error";
+        try {
+            Metrics.Stage decodeStage = Metrics.start("decode");
+            JobRequest request = JobRequest.decode(body, routedAction);
+            decodeStage.stop();
+            action = request.getAction();
+            job.setAction(action);
+            if (request.isStream() && request.getResultFormat() == ResultFormat.SMILE) {
+                throw new InvalidJobRequestException("Smile results cannot be streamed over HTTP");
+            }
+            sink.events = request.isStream();
+
+            // Events are text, they are never gzipped
+            try (ResultStream results = new ResultStream(sink, requestId, request.isStream(),
+                    request.getResultFormat(), WorkerConfig.STREAM_BATCH_BYTES, WorkerConfig.STREAM_BATCH_MS,
+                    WorkerConfig.OUTPUT_MAX_BYTES, request.isStream() ? 0 : WorkerConfig.RESULT_GZIP_BYTES)) {
+                String[] cacheKey = new String[1];
+                JobResult result = JobWorker.cachedResult(request, cacheKey);
+                if (result != null) {
+                    System.out.println(" [x] Received '" + request.getProjectPath() + "' for action '" + action
+                            + "' over HTTP, answered from the result cache");
+                    results.finish(result);
+                } else {
+                    System.out.println(" [x] Received '" + request.getProjectPath() + "' for action '" + action
+                            + "' over HTTP");
+                    JobWorker.runAction(request, results);
+                    result = results.getResult();
+                    JobWorker.cacheResult(cacheKey[0], request, results);
+                }
+                if (result == null) {
+                    sink.fail(500, "The job failed, see the worker log");
+                } else {
+                    outcome = result.getStatus().name();
+                }
+            }
+        } catch (InvalidJobRequestException e) {
+            System.err.println(" [!] Rejected request: " + e.getMessage());
+            outcome = "rejected";
+            sink.fail(400, e.getMessage());
+        } catch (Exception e) {
+            System.err.println(" [!] Error processing request: " + e.getMessage());
+            e.printStackTrace();
+            sink.fail(500, String.valueOf(e.getMessage()));
+        } finally {
+            Metrics.jobFinished(action, outcome);
+            Metrics.jobDone();
+            job.end(outcome);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", ResultFormat.TEXT.getContentType());
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Writes the messages of one job into its response, as they come.
+     */
+    private static final class HttpSink implements ResultSink {
+        private final HttpExchange exchange;
+        private boolean events;
+        private OutputStream out;
+
+        HttpSink(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public synchronized CompletableFuture<Void> publish(String routingKey, AMQP.BasicProperties properties,
+                byte[] body) {
+            try {
+                if (events) {
+                    if (out == null) {
+                        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+                        exchange.sendResponseHeaders(200, 0);
+                        out = exchange.getResponseBody();
+                    }
+                    out.write(event(properties, body));
+                    out.flush();
+                } else {
+                    Headers headers = exchange.getResponseHeaders();
+                    headers.set("Content-Type", properties.getContentType());
+                    if (properties.getContentEncoding() != null) {
+                        headers.set("Content-Encoding", properties.getContentEncoding());
+                    }
+                    exchange.sendResponseHeaders(200, body.length);
+                    out = exchange.getResponseBody();
+                    out.write(body);
+                    out.flush();
+                }
+                return CompletableFuture.completedFuture(null);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        // Lines of the body each become a data line, clients join them back with newlines
+        private static byte[] event(AMQP.BasicProperties properties, byte[] body) {
+            StringBuilder event = new StringBuilder();
+            event.append("id: ").append(properties.getHeaders().get("seq")).append('\n');
+            event.append("event: ").append(properties.getHeaders().get("type")).append('\n');
+            for (String line : new String(body, StandardCharsets.UTF_8).split("\r?\n", -1)) {
+                event.append("data: ").append(line).append('\n');
+            }
+            return event.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Answers with an error, unless the response already started.
+         */
+        synchronized void fail(int status, String message) throws IOException {
+            if (out == null) {
+                respond(exchange, status, message);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.eseo.workers;
+
+import java.util.Locale;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * One compiler message (error, warning or note) with its position in the sources.
+ */
+@JsonIgnoreProperties(value = "error", allowGetters = true)
+public class CompileDiagnostic {
+    private final String kind;
+    private final String source;
+    private final long line;
+    private final long column;
+    private final String code;
+    private final String message;
+
+    @JsonCreator
+    public CompileDiagnostic(@JsonProperty("kind") String kind, @JsonProperty("source") String source,
+            @JsonProperty("line") long line, @JsonProperty("column") long column,
+            @JsonProperty("code") String code, @JsonProperty("message") String message) {
+        this.kind = kind;
+        this.source = source;
+        this.line = line;
+        this.column = column;
+        this.code = code;
+        this.message = message;
+    }
+
+    static CompileDiagnostic from(Diagnostic<? extends JavaFileObject> diagnostic) {
+        JavaFileObject file = diagnostic.getSource();
+        return new CompileDiagnostic(
+                diagnostic.getKind().name(),
+                file == null ? null : file.getName(),
+                diagnostic.getLineNumber(),
+                diagnostic.getColumnNumber(),
+                diagnostic.getCode(),
+                diagnostic.getMessage(Locale.ROOT));
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public long getLine() {
+        return line;
+    }
+
+    public long getColumn() {
+        return column;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isError() {
+        return Diagnostic.Kind.ERROR.name().equals(kind);
+    }
+
+    // Same layout as the javac command line so existing clients keep reading it
+    @Override
+    public String toString() {
+        String label = kind.toLowerCase(Locale.ROOT).replace('_', ' ');
+        if (source == null) {
+            return label + ": " + message;
+        }
+        return source + ":" + line + ": " + label + ": " + message;
+    }
+}
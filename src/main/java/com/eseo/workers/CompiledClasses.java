@@ -0,0 +1,67 @@
+package com.eseo.workers;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class files produced by an in-memory compilation, by binary name.
+ */
+public class CompiledClasses {
+    private final Map<String, byte[]> classes = Collections.synchronizedMap(new TreeMap<>());
+    private final Map<String, URI> sources = new ConcurrentHashMap<>();
+
+    public void put(String binaryName, byte[] bytecode) {
+        classes.put(binaryName, bytecode);
+    }
+
+    /**
+     * Stores a class produced from the given source file.
+     */
+    public void put(String binaryName, byte[] bytecode, URI source) {
+        put(binaryName, bytecode);
+        if (source != null) {
+            sources.put(binaryName, source);
+        }
+    }
+
+    /**
+     * Source file the class was compiled from, null when javac did not tell.
+     */
+    public URI sourceOf(String binaryName) {
+        return sources.get(binaryName);
+    }
+
+    public byte[] get(String binaryName) {
+        return classes.get(binaryName);
+    }
+
+    public Map<String, byte[]> asMap() {
+        synchronized (classes) {
+            return new TreeMap<>(classes);
+        }
+    }
+
+    public boolean isEmpty() {
+        return classes.isEmpty();
+    }
+
+    public static String entryName(String binaryName) {
+        return binaryName.replace('.', '/') + ".class";
+    }
+
+    /**
+     * Writes every class as a jar entry, in the same layout javac would use on disk.
+     */
+    public void writeTo(JarWriter jar) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> compiledClass : asMap().entrySet()) {
+            entries.put(entryName(compiledClass.getKey()), compiledClass.getValue());
+        }
+        jar.addEntries(entries, System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,328 @@
+package com.eseo.workers;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.eseo.workers.ProjectBuildIndex.ArtifactState;
+import com.eseo.workers.ProjectBuildIndex.RootState;
+import com.eseo.workers.ProjectBuildIndex.SourceState;
+
+/**
+ * The compilations of one job on one project. Only the sources whose hash
+ * changed since the last successful build, and the sources depending on them,
+ * are given to javac; the classes of every other source come from the project
+ * index. Holds the project lock until released or closed, so jobs on the same
+ * project run their compilations one after the other.
+ */
+public class IncrementalBuild implements AutoCloseable {
+    private final JavaCompilerEngine compiler;
+    private final ProjectBuildIndex index;
+    private final File projectDir;
+    private final String libraryFingerprint;
+    private final CompiledClasses classes = new CompiledClasses();
+    // Classes added, changed or removed by the roots compiled so far in this build
+    private final Set<String> changedClasses = new HashSet<>();
+    private final StringBuilder inputs = new StringBuilder();
+    private boolean rebuildAll;
+    private int compiledSources;
+    private boolean locked;
+
+    IncrementalBuild(JavaCompilerEngine compiler, ProjectBuildIndex index, File projectDir, String libraryFingerprint) {
+        this.compiler = compiler;
+        this.index = index;
+        this.projectDir = projectDir;
+        this.libraryFingerprint = libraryFingerprint;
+        this.rebuildAll = index == null;
+        if (index != null) {
+            index.lock.lock();
+            locked = true;
+        }
+    }
+
+    /**
+     * Lets the next job on the project compile, once the classes of this one are
+     * all compiled; they stay readable, nothing compiles them any more.
+     */
+    public void release() {
+        if (locked) {
+            locked = false;
+            index.lock.unlock();
+        }
+    }
+
+    /**
+     * Every class of the roots compiled so far, ready to be written to a jar.
+     */
+    public CompiledClasses getClasses() {
+        return classes;
+    }
+
+    /**
+     * Number of source files actually handed to javac by this build.
+     */
+    public int getCompiledSources() {
+        return compiledSources;
+    }
+
+    /**
+     * Compiles a source root, roots compiled earlier in the build are on the class path.
+     */
+    public CompilationResult compile(File sourceRoot, List<File> sources, List<String> options, File workingDir)
+            throws IOException, InterruptedException {
+        String rootKey = projectDir.toPath().relativize(sourceRoot.toPath()).toString();
+        Map<String, File> files = new TreeMap<>();
+        Map<String, String> hashes = new HashMap<>();
+        for (File source : sources) {
+            String relativePath = sourceRoot.toPath().relativize(source.toPath()).toString();
+            files.put(relativePath, source);
+            hashes.put(relativePath, Hashing.sha256(Files.readAllBytes(source.toPath())));
+        }
+        String optionsKey = optionsKey(options);
+        inputs.append(rootKey).append('|').append(optionsKey).append('\n');
+        for (String relativePath : files.keySet()) {
+            inputs.append(relativePath).append('=').append(hashes.get(relativePath)).append('\n');
+        }
+
+        RootState previous = index == null ? null : index.roots.get(rootKey);
+        if (rebuildAll || previous == null || !previous.optionsKey.equals(optionsKey)) {
+            return compileAll(rootKey, sourceRoot, files, hashes, optionsKey, options, workingDir);
+        }
+
+        // Sources that are new or whose content changed, and classes that no longer exist as they were
+        Set<String> recompile = new HashSet<>();
+        Set<String> staleClasses = new HashSet<>();
+        Map<String, Map<String, Object>> staleConstants = new HashMap<>();
+        for (Map.Entry<String, SourceState> entry : previous.sources.entrySet()) {
+            String hash = hashes.get(entry.getKey());
+            if (!entry.getValue().sha256.equals(hash)) {
+                staleClasses.addAll(entry.getValue().classes.keySet());
+                staleConstants.putAll(entry.getValue().constants);
+            }
+        }
+        for (String relativePath : files.keySet()) {
+            SourceState state = previous.sources.get(relativePath);
+            if (state == null || !state.sha256.equals(hashes.get(relativePath))) {
+                recompile.add(relativePath);
+            }
+        }
+
+        // Anything using a stale class, directly or through another class, is compiled again
+        Set<String> affectedClasses = new HashSet<>(staleClasses);
+        affectedClasses.addAll(changedClasses);
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            for (Map.Entry<String, SourceState> entry : previous.sources.entrySet()) {
+                String relativePath = entry.getKey();
+                if (files.containsKey(relativePath) && !recompile.contains(relativePath)
+                        && entry.getValue().references(affectedClasses)) {
+                    recompile.add(relativePath);
+                    affectedClasses.addAll(entry.getValue().classes.keySet());
+                    grown = true;
+                }
+            }
+        }
+
+        Map<String, SourceState> states = new TreeMap<>();
+        for (Map.Entry<String, SourceState> entry : previous.sources.entrySet()) {
+            if (files.containsKey(entry.getKey()) && !recompile.contains(entry.getKey())) {
+                states.put(entry.getKey(), entry.getValue());
+                for (Map.Entry<String, byte[]> compiledClass : entry.getValue().classes.entrySet()) {
+                    classes.put(compiledClass.getKey(), compiledClass.getValue());
+                }
+            }
+        }
+        if (recompile.isEmpty()) {
+            index.roots.put(rootKey, new RootState(optionsKey, states));
+            changedClasses.addAll(staleClasses);
+            return new CompilationResult(0, Collections.emptyList(), "", 0);
+        }
+
+        List<File> changedFiles = new ArrayList<>();
+        for (String relativePath : recompile) {
+            changedFiles.add(files.get(relativePath));
+        }
+        CompilationResult result = compiler.compile(options, changedFiles, workingDir, classes);
+        compiledSources += changedFiles.size();
+        if (!result.isSuccess()) {
+            return result;
+        }
+        Map<String, SourceState> compiled = collectStates(sourceRoot, recompile, hashes);
+        if (compiled == null) {
+            index.roots.remove(rootKey);
+            rebuildAll = true;
+            return result;
+        }
+
+        // Constants are inlined by javac: when one changes, nothing tells which classes used it
+        if (constantsChanged(staleConstants, compiled)) {
+            System.out.println(" [x] A constant changed in " + rootKey + ", compiling every source again");
+            rebuildAll = true;
+            return compileAll(rootKey, sourceRoot, files, hashes, optionsKey, options, workingDir);
+        }
+
+        states.putAll(compiled);
+        index.roots.put(rootKey, new RootState(optionsKey, states));
+        changedClasses.addAll(staleClasses);
+        for (SourceState state : compiled.values()) {
+            changedClasses.addAll(state.classes.keySet());
+        }
+        return result;
+    }
+
+    private CompilationResult compileAll(String rootKey, File sourceRoot, Map<String, File> files,
+            Map<String, String> hashes, String optionsKey, List<String> options, File workingDir)
+            throws IOException, InterruptedException {
+        CompilationResult result = compiler.compile(options, new ArrayList<>(files.values()), workingDir, classes);
+        compiledSources += files.size();
+        if (index == null || !result.isSuccess()) {
+            return result;
+        }
+        Map<String, SourceState> states = collectStates(sourceRoot, files.keySet(), hashes);
+        if (states == null) {
+            index.roots.remove(rootKey);
+            return result;
+        }
+        index.roots.put(rootKey, new RootState(optionsKey, states));
+        for (SourceState state : states.values()) {
+            changedClasses.addAll(state.classes.keySet());
+        }
+        return result;
+    }
+
+    // Groups the classes javac just wrote by the source they come from, null if one cannot be traced back
+    private Map<String, SourceState> collectStates(File sourceRoot, Set<String> compiledSources,
+            Map<String, String> hashes) throws IOException {
+        Path root = sourceRoot.toPath().toAbsolutePath().normalize();
+        Map<String, Map<String, byte[]>> classesBySource = new HashMap<>();
+        for (String relativePath : compiledSources) {
+            classesBySource.put(relativePath, new TreeMap<>());
+        }
+        for (Map.Entry<String, byte[]> compiledClass : classes.asMap().entrySet()) {
+            URI source = classes.sourceOf(compiledClass.getKey());
+            if (source == null) {
+                continue; // loaded from the index, not compiled now
+            }
+            Path sourcePath = Paths.get(source).toAbsolutePath().normalize();
+            if (!sourcePath.startsWith(root)) {
+                continue; // compiled by an earlier root
+            }
+            Map<String, byte[]> sourceClasses = classesBySource.get(root.relativize(sourcePath).toString());
+            if (sourceClasses == null) {
+                return null;
+            }
+            sourceClasses.put(compiledClass.getKey(), compiledClass.getValue());
+        }
+
+        Map<String, SourceState> states = new TreeMap<>();
+        for (Map.Entry<String, Map<String, byte[]>> entry : classesBySource.entrySet()) {
+            Set<String> referencedClasses = new HashSet<>();
+            Map<String, Map<String, Object>> constants = new HashMap<>();
+            for (Map.Entry<String, byte[]> compiledClass : entry.getValue().entrySet()) {
+                ClassFileInfo info = ClassFileInfo.parse(compiledClass.getValue());
+                referencedClasses.addAll(info.getReferencedClasses());
+                if (!info.getConstants().isEmpty()) {
+                    constants.put(compiledClass.getKey(), info.getConstants());
+                }
+            }
+            states.put(entry.getKey(), new SourceState(hashes.get(entry.getKey()), entry.getValue(),
+                    referencedClasses, constants));
+        }
+        return states;
+    }
+
+    private static boolean constantsChanged(Map<String, Map<String, Object>> staleConstants,
+            Map<String, SourceState> compiled) {
+        Map<String, Map<String, Object>> newConstants = new HashMap<>();
+        for (SourceState state : compiled.values()) {
+            newConstants.putAll(state.constants);
+        }
+        for (Map.Entry<String, Map<String, Object>> entry : staleConstants.entrySet()) {
+            if (!Objects.equals(entry.getValue(), newConstants.get(entry.getKey()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The class path is made of lib jars (already in the library fingerprint) and of earlier roots
+    private String optionsKey(List<String> options) {
+        StringBuilder key = new StringBuilder(libraryFingerprint);
+        for (int i = 0; i < options.size(); i++) {
+            String option = options.get(i);
+            if (option.equals("-cp") || option.equals("-classpath") || option.equals("-d")) {
+                i++;
+            } else {
+                key.append(' ').append(option);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Whether the given jar was built by a previous job from exactly the same inputs.
+     */
+    public boolean isUpToDate(File artifact) {
+        return isUpToDate(artifact, "");
+    }
+
+    /**
+     * Same, for a jar that was also written the given way (its layout).
+     */
+    public boolean isUpToDate(File artifact, String variant) {
+        if (index == null) {
+            return false;
+        }
+        ArtifactState state;
+        index.lock.lock();
+        try {
+            state = index.artifacts.get(artifact.getName());
+        } finally {
+            index.lock.unlock();
+        }
+        return state != null && state.inputsKey.equals(inputsKey(variant))
+                && artifact.isFile() && artifact.length() == state.length
+                && artifact.lastModified() == state.lastModified;
+    }
+
+    public void recordArtifact(File artifact) {
+        recordArtifact(artifact, "");
+    }
+
+    /**
+     * The jar may be recorded where it was built, publishing it keeps its name, length and date.
+     */
+    public void recordArtifact(File artifact, String variant) {
+        if (index != null) {
+            ArtifactState state = new ArtifactState(inputsKey(variant), artifact.length(), artifact.lastModified());
+            index.lock.lock();
+            try {
+                index.artifacts.put(artifact.getName(), state);
+            } finally {
+                index.lock.unlock();
+            }
+        }
+    }
+
+    private String inputsKey(String variant) {
+        return Hashing.sha256(inputs.toString() + variant);
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+}
@@ -0,0 +1,43 @@
+package com.eseo.workers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps a {@link ProjectBuildIndex} for the most recently built projects and
+ * starts {@link IncrementalBuild}s against them.
+ */
+public class IncrementalCompiler {
+    private final JavaCompilerEngine compiler;
+    private final boolean enabled;
+    private final Map<String, ProjectBuildIndex> indexes;
+
+    public IncrementalCompiler(JavaCompilerEngine compiler, boolean enabled, int maxProjects) {
+        this.compiler = compiler;
+        this.enabled = enabled && compiler.supportsMemoryOutput();
+        this.indexes = new LinkedHashMap<String, ProjectBuildIndex>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ProjectBuildIndex> eldest) {
+                return size() > maxProjects;
+            }
+        };
+    }
+
+    /**
+     * Starts a build of the project, the returned build must be closed once its jar is written.
+     *
+     * @param libraryFingerprint identifies the lib jars, any change rebuilds the whole project
+     */
+    public IncrementalBuild begin(File projectDir, String libraryFingerprint) throws IOException {
+        if (!enabled) {
+            return new IncrementalBuild(compiler, null, projectDir, libraryFingerprint);
+        }
+        ProjectBuildIndex index;
+        synchronized (indexes) {
+            index = indexes.computeIfAbsent(projectDir.getCanonicalPath(), path -> new ProjectBuildIndex());
+        }
+        return new IncrementalBuild(compiler, index, projectDir, libraryFingerprint);
+    }
+}
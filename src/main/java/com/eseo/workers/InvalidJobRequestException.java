@@ -0,0 +1,16 @@
+package com.eseo.workers;
+
+/**
+ * A job message that can never be processed, it is rejected instead of requeued.
+ */
+public class InvalidJobRequestException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public InvalidJobRequestException(String message) {
+        super(message);
+    }
+
+    public InvalidJobRequestException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,208 @@
+package com.eseo.workers;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.platform.engine.DiscoverySelector;
+import org.junit.platform.engine.TestEngine;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.TestSource;
+import org.junit.platform.engine.discovery.DiscoverySelectors;
+import org.junit.platform.engine.support.descriptor.ClassSource;
+import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.Launcher;
+import org.junit.platform.launcher.LauncherDiscoveryRequest;
+import org.junit.platform.launcher.TestExecutionListener;
+import org.junit.platform.launcher.TestIdentifier;
+import org.junit.platform.launcher.core.LauncherConfig;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+import org.junit.platform.launcher.core.LauncherFactory;
+
+/**
+ * Runs the tests of a project with the JUnit Platform launcher inside a runner
+ * JVM, and sends the result of every test as soon as it finished.
+ */
+final class JUnitRunner {
+    // What the launcher and the tests must share: the worker's other classes and jars stay out of their sight
+    private static final String[] SHARED_PACKAGES = { "org.junit.platform.", "org.opentest4j.", "org.apiguardian." };
+    private static final ClassLoader SHARED = new SharedClassLoader(JUnitRunner.class.getClassLoader());
+
+    private JUnitRunner() {
+    }
+
+    static int execute(RunnerMain.TestRequest request) {
+        return RunnerMain.runInProgramThread(request.libraries, SHARED, request.classes, classes -> {
+            List<Class<?>> testClasses = new ArrayList<>();
+            for (String testClass : request.testClasses) {
+                try {
+                    testClasses.add(Class.forName(testClass, false, classes));
+                } catch (ClassNotFoundException | LinkageError e) {
+                    System.err.println("Error: Could not load test class " + testClass);
+                    System.err.println("Caused by: " + e);
+                    return 1;
+                }
+            }
+            Launcher launcher;
+            try {
+                launcher = createLauncher(classes);
+            } catch (ServiceConfigurationError | LinkageError e) {
+                System.err.println("Error: Could not load the test engines of the project");
+                System.err.println("Caused by: " + e);
+                return 1;
+            }
+            LauncherDiscoveryRequest discovery = LauncherDiscoveryRequestBuilder.request()
+                    .selectors(testClasses.stream().map(DiscoverySelectors::selectClass)
+                            .toArray(DiscoverySelector[]::new))
+                    .build();
+            ResultListener listener = new ResultListener();
+            launcher.execute(discovery, listener);
+            return listener.failed.get() ? 1 : 0;
+        });
+    }
+
+    // Engines come with the test libraries (Jupiter, Vintage for JUnit 4 tests): they see the same API as the
+    // tests. Only the first engine of each id is kept, the console launcher jar comes last in the libraries.
+    private static Launcher createLauncher(ClassLoader classes) {
+        LauncherConfig.Builder config = LauncherConfig.builder().enableTestEngineAutoRegistration(false);
+        Set<String> engineIds = new HashSet<>();
+        for (TestEngine engine : ServiceLoader.load(TestEngine.class, classes)) {
+            if (engineIds.add(engine.getId())) {
+                config.addTestEngines(engine);
+            }
+        }
+        if (engineIds.isEmpty()) {
+            throw new ServiceConfigurationError("No test engine in the libraries of the project");
+        }
+        return LauncherFactory.create(config.build());
+    }
+
+    private static final class ResultListener implements TestExecutionListener {
+        private final Map<String, Long> startTimes = new ConcurrentHashMap<>();
+        private final AtomicBoolean failed = new AtomicBoolean();
+
+        @Override
+        public void executionStarted(TestIdentifier testIdentifier) {
+            startTimes.put(testIdentifier.getUniqueId(), System.nanoTime());
+        }
+
+        @Override
+        public void executionSkipped(TestIdentifier testIdentifier, String reason) {
+            if (testIdentifier.isTest()) {
+                send(testIdentifier, "SKIPPED", 0, reason, null);
+            }
+        }
+
+        @Override
+        public void executionFinished(TestIdentifier testIdentifier, TestExecutionResult result) {
+            Long startTime = startTimes.remove(testIdentifier.getUniqueId());
+            long duration = startTime == null ? 0 : (System.nanoTime() - startTime) / 1000000;
+            Throwable throwable = result.getThrowable().orElse(null);
+            // A failing container (static initializer, @BeforeAll) is reported once for all its tests
+            if (!testIdentifier.isTest() && throwable == null) {
+                return;
+            }
+            String status;
+            switch (result.getStatus()) {
+            case SUCCESSFUL:
+                status = "SUCCESS";
+                break;
+            case ABORTED:
+                status = "ABORTED";
+                break;
+            default:
+                status = "FAILED";
+                failed.set(true);
+            }
+            send(testIdentifier, status, duration, throwable == null ? null : throwable.toString(),
+                    throwable == null ? null : stackTrace(throwable));
+        }
+
+        private static void send(TestIdentifier testIdentifier, String status, long duration, String data,
+                String stackTrace) {
+            try {
+                RunnerMain.sendTestResult(testName(testIdentifier), status, duration, data, stackTrace);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Same names as the console launcher tree gave: "CalculatorTest.add()"
+    private static String testName(TestIdentifier testIdentifier) {
+        TestSource source = testIdentifier.getSource().orElse(null);
+        String className = null;
+        if (source instanceof MethodSource) {
+            className = ((MethodSource) source).getClassName();
+        } else if (source instanceof ClassSource) {
+            className = ((ClassSource) source).getClassName();
+            if (!testIdentifier.isTest()) {
+                return simpleName(className);
+            }
+        }
+        return className == null ? testIdentifier.getDisplayName()
+                : simpleName(className) + "." + testIdentifier.getDisplayName();
+    }
+
+    private static String simpleName(String className) {
+        return className.substring(Math.max(className.lastIndexOf('.'), className.lastIndexOf('$')) + 1);
+    }
+
+    /**
+     * Parent of the test libraries: the JDK, and the shared packages from the worker.
+     */
+    private static final class SharedClassLoader extends ClassLoader {
+        private final ClassLoader worker;
+
+        SharedClassLoader(ClassLoader worker) {
+            super(ClassLoader.getPlatformClassLoader());
+            this.worker = worker;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            if (!isShared(name)) {
+                throw new ClassNotFoundException(name);
+            }
+            return worker.loadClass(name);
+        }
+
+        @Override
+        protected URL findResource(String name) {
+            return isShared(name.replace('/', '.')) ? worker.getResource(name) : null;
+        }
+
+        @Override
+        protected Enumeration<URL> findResources(String name) throws IOException {
+            return isShared(name.replace('/', '.')) ? worker.getResources(name) : Collections.emptyEnumeration();
+        }
+
+        private static boolean isShared(String name) {
+            for (String sharedPackage : SHARED_PACKAGES) {
+                if (name.startsWith(sharedPackage)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static String stackTrace(Throwable throwable) {
+        StringWriter stackTrace = new StringWriter();
+        throwable.printStackTrace(new PrintWriter(stackTrace));
+        return stackTrace.toString();
+    }
+}
@@ -0,0 +1,27 @@
+package com.eseo.workers;
+
+import java.util.Locale;
+
+/**
+ * What the jar and test actions put in their jar. A fat jar holds the classes
+ * of every lib/ jar as well (merged by {@link LibraryMerger}), a thin jar only
+ * the classes of the project and a Class-Path naming the lib/ jars beside it:
+ * it is much smaller and quicker to write, but only runs next to its lib/.
+ */
+public enum JarLayout {
+    FAT, THIN;
+
+    /**
+     * The layout a request asked for, the configured default when it did not ask or is not known.
+     */
+    public static JarLayout forName(String name) {
+        if (name != null) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                System.err.println(" [!] Unknown jar layout " + name);
+            }
+        }
+        return valueOf(WorkerConfig.JAR_LAYOUT.toUpperCase(Locale.ROOT));
+    }
+}
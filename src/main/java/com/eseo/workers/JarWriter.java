@@ -0,0 +1,247 @@
+package com.eseo.workers;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal jar writer that takes entries which are already compressed
+ * ({@link RawJarEntry}), so cached library entries can be copied as they are.
+ * Batches of new entries are compressed on every core and written in order.
+ * Jars of more than 65535 entries or past 4GB get the zip64 records, as
+ * JarOutputStream writes them; a single entry stays below 4GB.
+ */
+public class JarWriter implements Closeable {
+    /**
+     * How new entries are written, library entries keep the form they had in their jar.
+     */
+    public enum Compression {
+        DEFLATE, STORE;
+
+        public static Compression forName(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+
+        RawJarEntry encode(String name, byte[] bytes, long lastModified) {
+            return this == STORE ? RawJarEntry.store(name, bytes, lastModified)
+                    : RawJarEntry.deflate(name, bytes, lastModified);
+        }
+    }
+
+    // Below this many entries the threads cost more than they save
+    private static final int PARALLEL_ENTRIES = 16;
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_END_LOCATOR = 0x07064b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final long MAX_ZIP_VALUE = 0xFFFFFFFFL;
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+    private final OutputStream out;
+    private final Compression compression;
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private final Set<String> names = new HashSet<>();
+    private long offset;
+    private int entryCount;
+
+    public JarWriter(OutputStream out) {
+        this(out, Compression.DEFLATE);
+    }
+
+    public JarWriter(OutputStream out, Compression compression) {
+        this.out = new BufferedOutputStream(out, 256 * 1024);
+        this.compression = compression;
+    }
+
+    public void writeManifest(Manifest manifest) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        manifest.write(bytes);
+        addEntry(JarFile.MANIFEST_NAME, bytes.toByteArray(), System.currentTimeMillis());
+    }
+
+    /**
+     * Compresses and adds an entry, returns false when an entry with the same name was already written.
+     */
+    public boolean addEntry(String name, byte[] bytes, long lastModified) throws IOException {
+        if (names.contains(name)) {
+            return false;
+        }
+        return addRawEntry(compression.encode(name, bytes, lastModified));
+    }
+
+    /**
+     * Compresses the entries in parallel and adds them in the order of the map.
+     */
+    public void addEntries(Map<String, byte[]> entries, long lastModified) throws IOException {
+        List<Map.Entry<String, byte[]>> pending = entries.entrySet().stream()
+                .filter(entry -> !names.contains(entry.getKey()))
+                .collect(Collectors.toList());
+        for (RawJarEntry entry : encode(pending, entry -> compression.encode(entry.getKey(), entry.getValue(),
+                lastModified))) {
+            addRawEntry(entry);
+        }
+    }
+
+    /**
+     * Reads and compresses the files under the directory in parallel, and adds them
+     * in the order of their paths, named after their path in the directory.
+     */
+    public void addDirectory(Path directory) throws IOException {
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            files = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        List<RawJarEntry> entries = encode(files, file -> {
+            String name = directory.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+            try {
+                return compression.encode(name, Files.readAllBytes(file), Files.getLastModifiedTime(file).toMillis());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        for (RawJarEntry entry : entries) {
+            addRawEntry(entry);
+        }
+    }
+
+    private static <T> List<RawJarEntry> encode(List<T> items, Function<T, RawJarEntry> encoder) throws IOException {
+        Stream<T> stream = items.size() >= PARALLEL_ENTRIES ? items.parallelStream() : items.stream();
+        try {
+            return stream.map(encoder).collect(Collectors.toCollection(ArrayList::new));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Adds an already compressed entry, returns false when an entry with the same name was already written.
+     */
+    public boolean addRawEntry(RawJarEntry entry) throws IOException {
+        if (!names.add(entry.getName())) {
+            return false;
+        }
+        if (entry.getSize() >= MAX_ZIP_VALUE || entry.getCompressedSize() >= MAX_ZIP_VALUE) {
+            throw new ZipException("Entry " + entry.getName() + " is 4GB or more");
+        }
+        byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+        // Past 4GB only the central directory needs the offset in a zip64 extra field
+        boolean zip64Offset = offset >= MAX_ZIP_VALUE;
+        int version = zip64Offset ? 45 : entry.getMethod() == ZipEntry.DEFLATED ? 20 : 10;
+
+        // Local file header
+        writeInt(out, LOCAL_HEADER);
+        writeShort(out, version);
+        writeShort(out, UTF8_FLAG);
+        writeShort(out, entry.getMethod());
+        writeInt(out, entry.getDosTime());
+        writeInt(out, entry.getCrc());
+        writeInt(out, entry.getCompressedSize());
+        writeInt(out, entry.getSize());
+        writeShort(out, name.length);
+        writeShort(out, 0);
+        out.write(name);
+        out.write(entry.getData());
+
+        // Matching central directory record, written at the end
+        writeInt(centralDirectory, CENTRAL_HEADER);
+        writeShort(centralDirectory, version);
+        writeShort(centralDirectory, version);
+        writeShort(centralDirectory, UTF8_FLAG);
+        writeShort(centralDirectory, entry.getMethod());
+        writeInt(centralDirectory, entry.getDosTime());
+        writeInt(centralDirectory, entry.getCrc());
+        writeInt(centralDirectory, entry.getCompressedSize());
+        writeInt(centralDirectory, entry.getSize());
+        writeShort(centralDirectory, name.length);
+        writeShort(centralDirectory, zip64Offset ? 12 : 0); // extra field length
+        writeShort(centralDirectory, 0); // comment length
+        writeShort(centralDirectory, 0); // disk number
+        writeShort(centralDirectory, 0); // internal attributes
+        writeInt(centralDirectory, 0); // external attributes
+        writeInt(centralDirectory, Math.min(offset, MAX_ZIP_VALUE));
+        centralDirectory.write(name);
+        if (zip64Offset) {
+            writeShort(centralDirectory, ZIP64_EXTRA);
+            writeShort(centralDirectory, 8);
+            writeLong(centralDirectory, offset);
+        }
+
+        offset += 30 + name.length + entry.getCompressedSize();
+        entryCount++;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            long directoryOffset = offset;
+            centralDirectory.writeTo(out);
+            if (entryCount >= MAX_ENTRIES || directoryOffset >= MAX_ZIP_VALUE) {
+                long zip64EndOffset = directoryOffset + centralDirectory.size();
+                writeInt(out, ZIP64_END_OF_CENTRAL_DIRECTORY);
+                writeLong(out, 44); // size of the rest of this record
+                writeShort(out, 45); // version made by
+                writeShort(out, 45); // version needed
+                writeInt(out, 0); // this disk
+                writeInt(out, 0); // disk with the central directory
+                writeLong(out, entryCount);
+                writeLong(out, entryCount);
+                writeLong(out, centralDirectory.size());
+                writeLong(out, directoryOffset);
+                writeInt(out, ZIP64_END_LOCATOR);
+                writeInt(out, 0); // disk with the zip64 end record
+                writeLong(out, zip64EndOffset);
+                writeInt(out, 1); // number of disks
+            }
+            // Fields that overflow are saturated, readers take them from the zip64 record
+            writeInt(out, END_OF_CENTRAL_DIRECTORY);
+            writeShort(out, 0); // this disk
+            writeShort(out, 0); // disk with the central directory
+            writeShort(out, Math.min(entryCount, MAX_ENTRIES));
+            writeShort(out, Math.min(entryCount, MAX_ENTRIES));
+            writeInt(out, centralDirectory.size());
+            writeInt(out, Math.min(directoryOffset, MAX_ZIP_VALUE));
+            writeShort(out, 0); // comment length
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+
+    private static void writeInt(OutputStream out, long value) throws IOException {
+        writeShort(out, (int) (value & 0xFFFF));
+        writeShort(out, (int) ((value >>> 16) & 0xFFFF));
+    }
+
+    private static void writeLong(OutputStream out, long value) throws IOException {
+        writeInt(out, value & MAX_ZIP_VALUE);
+        writeInt(out, value >>> 32);
+    }
+}
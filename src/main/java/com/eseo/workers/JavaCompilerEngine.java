@@ -0,0 +1,243 @@
+package com.eseo.workers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles Java sources either inside the worker JVM with the JDK compiler API,
+ * or by forking a javac process when in-process compilation is unavailable or
+ * disabled with WORKER_COMPILER=fork.
+ */
+public class JavaCompilerEngine {
+    public enum Mode {
+        IN_PROCESS, FORK
+    }
+
+    // Set from -d, -cp, -sourcepath, --release... they outlive the compilation that gave them
+    private static final StandardLocation[] OPTION_LOCATIONS = {
+            StandardLocation.CLASS_OUTPUT, StandardLocation.SOURCE_OUTPUT, StandardLocation.NATIVE_HEADER_OUTPUT,
+            StandardLocation.CLASS_PATH, StandardLocation.SOURCE_PATH, StandardLocation.ANNOTATION_PROCESSOR_PATH,
+            StandardLocation.PLATFORM_CLASS_PATH, StandardLocation.SYSTEM_MODULES };
+
+    private final Mode mode;
+    private final JavaCompiler compiler;
+    // Only javac processes use them, null without archives
+    private final ClassDataArchives archives;
+
+    // File managers cache opened jars between compilations but are not thread safe
+    private final ThreadLocal<FileManagerHolder> fileManagers = ThreadLocal.withInitial(FileManagerHolder::new);
+
+    public JavaCompilerEngine(Mode mode) {
+        this(mode, null);
+    }
+
+    public JavaCompilerEngine(Mode mode, ClassDataArchives archives) {
+        this.archives = archives;
+        JavaCompiler systemCompiler = mode == Mode.IN_PROCESS ? ToolProvider.getSystemJavaCompiler() : null;
+        if (mode == Mode.IN_PROCESS && systemCompiler == null) {
+            System.err.println(" [!] No system Java compiler available, falling back to javac processes");
+        }
+        this.compiler = systemCompiler;
+        this.mode = systemCompiler == null ? Mode.FORK : Mode.IN_PROCESS;
+    }
+
+    public static JavaCompilerEngine fromConfig(ClassDataArchives archives) {
+        String mode = WorkerConfig.COMPILER_MODE;
+        return new JavaCompilerEngine("fork".equalsIgnoreCase(mode) ? Mode.FORK : Mode.IN_PROCESS, archives);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Whether class files can be kept in memory, see {@link #compile(List, List, File, CompiledClasses)}.
+     */
+    public boolean supportsMemoryOutput() {
+        return mode == Mode.IN_PROCESS;
+    }
+
+    /**
+     * Compiles the given sources with javac command line options (-d, -cp, ...).
+     */
+    public CompilationResult compile(List<String> options, List<File> sources, File workingDir)
+            throws IOException, InterruptedException {
+        return compile(options, sources, workingDir, null);
+    }
+
+    /**
+     * Same as {@link #compile(List, List, File)}, but class files go to the given
+     * store instead of the -d directory when it is not null.
+     */
+    public CompilationResult compile(List<String> options, List<File> sources, File workingDir,
+            CompiledClasses output) throws IOException, InterruptedException {
+        if (output != null && !supportsMemoryOutput()) {
+            throw new IllegalStateException("Class files can only be kept in memory when compiling in process");
+        }
+        Metrics.Stage stage = Metrics.start("compile");
+        try {
+            if (mode == Mode.FORK) {
+                return compileWithJavac(options, sources, workingDir);
+            }
+            return compileWithApi(options, sources, output);
+        } finally {
+            stage.stop();
+        }
+    }
+
+    private CompilationResult compileWithApi(List<String> options, List<File> sources, CompiledClasses output)
+            throws IOException {
+        long startTime = System.currentTimeMillis();
+        FileManagerHolder holder = fileManagers.get();
+        StandardJavaFileManager standardFileManager = holder.acquire();
+        JavaFileManager fileManager = output == null ? standardFileManager
+                : new MemoryFileManager(standardFileManager, output);
+
+        DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<>();
+        StringWriter messages = new StringWriter();
+        Iterable<? extends JavaFileObject> units = standardFileManager.getJavaFileObjectsFromFiles(sources);
+        boolean success;
+        try {
+            success = compiler.getTask(messages, fileManager, collector, options, null, units).call();
+        } catch (RuntimeException e) {
+            // A crashed compiler can leave the file manager in a bad state
+            holder.discard();
+            throw e;
+        }
+        long compilationTime = System.currentTimeMillis() - startTime;
+
+        List<CompileDiagnostic> diagnostics = new ArrayList<>();
+        StringBuilder text = new StringBuilder(messages.toString());
+        for (Diagnostic<? extends JavaFileObject> diagnostic : collector.getDiagnostics()) {
+            CompileDiagnostic compileDiagnostic = CompileDiagnostic.from(diagnostic);
+            diagnostics.add(compileDiagnostic);
+            text.append(compileDiagnostic).append(System.lineSeparator());
+        }
+        return new CompilationResult(success ? 0 : 1, diagnostics, text.toString(), compilationTime);
+    }
+
+    private CompilationResult compileWithJavac(List<String> options, List<File> sources, File workingDir)
+            throws IOException, InterruptedException {
+        long startTime = System.currentTimeMillis();
+        List<String> command = new ArrayList<>();
+        command.add("javac");
+        ClassDataArchives.Archive archive = archives == null ? null
+                : archives.archive("javac", Collections.emptyList());
+        if (archive != null) {
+            // javac hands -J options to its JVM
+            for (String option : archive.jvmOptions()) {
+                command.add("-J" + option);
+            }
+        }
+        command.addAll(options);
+        for (File source : sources) {
+            command.add(source.getPath());
+        }
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.directory(workingDir);
+        Process compileProcess = archive != null ? archive.start(processBuilder) : processBuilder.start();
+        Metrics.processStarted("javac");
+        ProcessOutput processOutput = ProcessOutput.drain(compileProcess);
+        int compileExitCode = compileProcess.waitFor();
+        processOutput.await();
+        long compilationTime = System.currentTimeMillis() - startTime;
+        String compilationErrors = JobWorker.logProcessOutput("Compilation", processOutput);
+        return new CompilationResult(compileExitCode, Collections.emptyList(), compilationErrors, compilationTime);
+    }
+
+    /**
+     * Runs a throwaway compilation so the first job does not pay for loading
+     * and JIT-compiling javac.
+     */
+    public void warmUp() {
+        if (mode != Mode.IN_PROCESS) {
+            return;
+        }
+        Path outputDir = null;
+        try {
+            outputDir = Files.createTempDirectory("javac-warmup");
+            JavaFileObject source = new SimpleJavaFileObject(URI.create("string:///WarmUp.java"),
+                    JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return "public class WarmUp { public static void main(String[] args) {"
+                            + " System.out.println(java.util.Arrays.asList(args)); } }";
+                }
+            };
+            StandardJavaFileManager fileManager = fileManagers.get().acquire();
+            compiler.getTask(new StringWriter(), fileManager, new DiagnosticCollector<>(),
+                    Arrays.asList("-d", outputDir.toString()), null, Collections.singletonList(source)).call();
+        } catch (IOException | RuntimeException e) {
+            System.err.println(" [!] Compiler warm up failed: " + e.getMessage());
+        } finally {
+            deleteRecursively(outputDir);
+        }
+    }
+
+    private static void deleteRecursively(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            // Only a temporary directory
+        }
+    }
+
+    private final class FileManagerHolder {
+        private StandardJavaFileManager fileManager;
+        private int uses;
+
+        StandardJavaFileManager acquire() throws IOException {
+            // Recycled now and then so jars of old projects are not kept open forever
+            if (fileManager != null && uses >= WorkerConfig.COMPILER_FILE_MANAGER_REUSE) {
+                discard();
+            }
+            if (fileManager == null) {
+                fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+            } else {
+                // Back to the defaults of a new file manager, a job without -sourcepath must not
+                // see the sources of the previous one
+                for (StandardLocation location : OPTION_LOCATIONS) {
+                    fileManager.setLocation(location, null);
+                }
+            }
+            uses++;
+            return fileManager;
+        }
+
+        void discard() {
+            if (fileManager != null) {
+                try {
+                    fileManager.close();
+                } catch (IOException e) {
+                    System.err.println(" [!] Could not close file manager: " + e.getMessage());
+                }
+            }
+            fileManager = null;
+            uses = 0;
+        }
+    }
+}
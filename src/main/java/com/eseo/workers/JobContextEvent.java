@@ -0,0 +1,15 @@
+package com.eseo.workers;
+
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Fields shared by the worker's events so that a recording can be filtered on one job.
+ */
+abstract class JobContextEvent extends Event {
+    @Label("Request Id")
+    String requestId;
+
+    @Label("Action")
+    String action;
+}
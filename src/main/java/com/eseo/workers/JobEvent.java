@@ -0,0 +1,18 @@
+package com.eseo.workers;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event spanning a whole job, from its decoding to the publication of its result.
+ */
+@Name("com.eseo.workers.Job")
+@Label("Job")
+@Category("Java Worker")
+@Description("A job from its decoding to the publication of its result")
+class JobEvent extends JobContextEvent {
+    @Label("Outcome")
+    String outcome;
+}
@@ -0,0 +1,75 @@
+package com.eseo.workers;
+
+/**
+ * Resources a program or a test run may use before it is stopped. Each limit
+ * has a default for every action (e.g. WORKER_LIMITS_WALL_MS) which can be
+ * overridden for one action (e.g. WORKER_LIMITS_JUNIT_WALL_MS).
+ */
+public class JobLimits {
+
+    public enum Limit {
+        WALL_TIME, CPU_TIME, OUTPUT
+    }
+
+    private final long wallTimeMillis;
+    private final long cpuTimeMillis;
+    private final int heapMb;
+    private final long outputBytes;
+
+    public JobLimits(long wallTimeMillis, long cpuTimeMillis, int heapMb, long outputBytes) {
+        this.wallTimeMillis = wallTimeMillis;
+        this.cpuTimeMillis = cpuTimeMillis;
+        this.heapMb = heapMb;
+        this.outputBytes = outputBytes;
+    }
+
+    public static JobLimits forAction(String action) {
+        return new JobLimits(
+                WorkerConfig.longSetting("worker.limits." + action + ".wall.ms", WorkerConfig.LIMITS_WALL_MS),
+                WorkerConfig.longSetting("worker.limits." + action + ".cpu.ms", WorkerConfig.LIMITS_CPU_MS),
+                WorkerConfig.intSetting("worker.limits." + action + ".heap.mb", WorkerConfig.LIMITS_HEAP_MB),
+                WorkerConfig.longSetting("worker.limits." + action + ".output.bytes", WorkerConfig.LIMITS_OUTPUT_BYTES));
+    }
+
+    /**
+     * These limits, lowered to the ones a request set for itself.
+     */
+    public JobLimits restrictTo(JobRequest.Limits requested) {
+        return new JobLimits(
+                requested.getWallMs() == null ? wallTimeMillis : Math.min(wallTimeMillis, requested.getWallMs()),
+                requested.getCpuMs() == null ? cpuTimeMillis : Math.min(cpuTimeMillis, requested.getCpuMs()),
+                requested.getHeapMb() == null ? heapMb : Math.min(heapMb, requested.getHeapMb()),
+                requested.getOutputBytes() == null ? outputBytes : Math.min(outputBytes, requested.getOutputBytes()));
+    }
+
+    public long getWallTimeMillis() {
+        return wallTimeMillis;
+    }
+
+    public long getCpuTimeMillis() {
+        return cpuTimeMillis;
+    }
+
+    /**
+     * Maximum heap of the program or tests. Warm runner JVMs all have WORKER_RUNNER_HEAP_MB,
+     * jobs asking for another heap are forked.
+     */
+    public int getHeapMb() {
+        return heapMb;
+    }
+
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    public String describe(Limit limit) {
+        switch (limit) {
+        case WALL_TIME:
+            return "time limit of " + wallTimeMillis + " ms exceeded";
+        case CPU_TIME:
+            return "CPU time limit of " + cpuTimeMillis + " ms exceeded";
+        default:
+            return "output limit of " + outputBytes + " bytes exceeded";
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.eseo.workers;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * A job message as published by the API:
+ *
+ * <pre>
+ * {"projectPath": "...", "action": "run", "stream": true, "format": "json", "jarLayout": "thin",
+ *  "priority": 5, "jdk": 11, "limits": {"wallMs": 5000, "cpuMs": 2000, "heapMb": 128, "outputBytes": 65536}}
+ * </pre>
+ *
+ * Only projectPath is required, and the action when the routing key does not
+ * give one. Limits can only lower the ones of the worker. Unknown fields are
+ * ignored so the API can add some before the workers know about them.
+ */
+public class JobRequest {
+    static final Set<String> ACTIONS = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList("run", "jar", "test", "junit")));
+    private static final int MIN_JDK = 8;
+
+    // Readers are immutable and thread safe, one is enough for every delivery
+    private static final ObjectReader READER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .readerFor(JobRequest.class);
+
+    private String projectPath;
+    private String action;
+    private boolean stream;
+    private String format;
+    private String jarLayout;
+    private Integer priority;
+    private Integer jdk;
+    private Limits limits;
+
+    private JobRequest() {
+    }
+
+    /**
+     * Reads and checks a job message, routedAction is the action of the routing key if it has one.
+     */
+    public static JobRequest decode(byte[] body, String routedAction) throws InvalidJobRequestException {
+        JobRequest request;
+        try {
+            request = READER.readValue(body);
+        } catch (JsonProcessingException e) {
+            throw new InvalidJobRequestException("Malformed job message: " + e.getOriginalMessage(), e);
+        } catch (IOException e) {
+            throw new InvalidJobRequestException("Unreadable job message: " + e.getMessage(), e);
+        }
+        if (request == null) {
+            throw new InvalidJobRequestException("Empty job message");
+        }
+        if (request.action == null) {
+            request.action = routedAction;
+        }
+        request.validate();
+        return request;
+    }
+
+    private void validate() throws InvalidJobRequestException {
+        if (projectPath == null || projectPath.isEmpty()) {
+            throw new InvalidJobRequestException("No projectPath specified");
+        }
+        if (action == null) {
+            throw new InvalidJobRequestException("No action specified");
+        }
+        if (!ACTIONS.contains(action)) {
+            throw new InvalidJobRequestException("Unknown action: " + action);
+        }
+        if (format != null) {
+            try {
+                ResultFormat.valueOf(format.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new InvalidJobRequestException("Unknown result format: " + format);
+            }
+        }
+        if (jarLayout != null) {
+            try {
+                JarLayout.valueOf(jarLayout.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new InvalidJobRequestException("Unknown jar layout: " + jarLayout);
+            }
+        }
+        if (priority != null && (priority < 0 || priority > 255)) {
+            throw new InvalidJobRequestException("Priority must be between 0 and 255: " + priority);
+        }
+        int maxJdk = Runtime.version().feature();
+        if (jdk != null && (jdk < MIN_JDK || jdk > maxJdk)) {
+            throw new InvalidJobRequestException("JDK " + jdk + " is not supported, use " + MIN_JDK + " to "
+                    + maxJdk);
+        }
+        if (limits != null) {
+            limits.validate();
+        }
+    }
+
+    public String getProjectPath() {
+        return projectPath;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    /**
+     * Whether partial results are published while the job runs.
+     */
+    public boolean isStream() {
+        return stream;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public ResultFormat getResultFormat() {
+        return ResultFormat.forName(format);
+    }
+
+    /**
+     * Layout of the jar built by the jar and test actions, the configured one when the request does not choose.
+     */
+    public JarLayout getJarLayout() {
+        return JarLayout.forName(jarLayout);
+    }
+
+    /**
+     * Priority the API gave the job, null when it gave none. The broker orders
+     * the shared queue by the priority property of the message, this one is
+     * only reported.
+     */
+    public Integer getPriority() {
+        return priority;
+    }
+
+    /**
+     * Java release the sources are compiled for, null for the default of each action.
+     */
+    public Integer getJdk() {
+        return jdk;
+    }
+
+    public Limits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Limits of the action, lowered to the ones of the request.
+     */
+    public JobLimits limitsFor(JobLimits defaults) {
+        return limits == null ? defaults : defaults.restrictTo(limits);
+    }
+
+    /**
+     * Limits a request may set for itself, each one null when not set.
+     */
+    public static class Limits {
+        private Long wallMs;
+        private Long cpuMs;
+        private Integer heapMb;
+        private Long outputBytes;
+
+        private Limits() {
+        }
+
+        private void validate() throws InvalidJobRequestException {
+            if ((wallMs != null && wallMs <= 0) || (cpuMs != null && cpuMs <= 0)
+                    || (heapMb != null && heapMb <= 0) || (outputBytes != null && outputBytes <= 0)) {
+                throw new InvalidJobRequestException("Limits must be positive");
+            }
+        }
+
+        public Long getWallMs() {
+            return wallMs;
+        }
+
+        public Long getCpuMs() {
+            return cpuMs;
+        }
+
+        public Integer getHeapMb() {
+            return heapMb;
+        }
+
+        public Long getOutputBytes() {
+            return outputBytes;
+        }
+    }
+}
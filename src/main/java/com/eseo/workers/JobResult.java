@@ -0,0 +1,239 @@
+package com.eseo.workers;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.eseo.workers.JobWorker.TestResult;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonPOJOBuilder;
+
+/**
+ * Final result of a job. Clients asking for a structured format get every field
+ * below, clients asking for text get the same message as before this existed.
+ * Times are in milliseconds, -1 when the job did not get to that stage.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({ "version", "status", "cached", "exitCode", "compilationTime", "runTime", "totalTime", "limit",
+        "artifact", "diagnostics", "tests", "output", "error" })
+@JsonDeserialize(builder = JobResult.Builder.class)
+public class JobResult {
+    // Bumped whenever a field changes meaning or goes away, new fields do not need it
+    public static final int VERSION = 1;
+
+    // ERROR is a failure of the worker itself, not of the project
+    public enum Status {
+        SUCCESS, COMPILATION_FAILED, RUN_FAILED, TESTS_FAILED, LIMIT_EXCEEDED, ERROR
+    }
+
+    private final Status status;
+    private final Boolean cached;
+    private final Integer exitCode;
+    private final long compilationTime;
+    private final long runTime;
+    private final long totalTime;
+    private final String limit;
+    private final String artifact;
+    private final List<CompileDiagnostic> diagnostics;
+    private final List<TestResult> tests;
+    private final String output;
+    private final String error;
+    private final String text;
+
+    private JobResult(Builder builder) {
+        this.status = builder.status;
+        this.cached = builder.cached;
+        this.exitCode = builder.exitCode;
+        this.compilationTime = builder.compilationTime;
+        this.runTime = builder.runTime;
+        this.totalTime = builder.totalTime;
+        this.limit = builder.limit;
+        this.artifact = builder.artifact;
+        this.diagnostics = builder.diagnostics;
+        this.tests = builder.tests;
+        this.output = builder.output;
+        this.error = builder.error;
+        this.text = builder.text;
+    }
+
+    public int getVersion() {
+        return VERSION;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * True when the result was computed for an identical submission, absent otherwise.
+     */
+    public Boolean getCached() {
+        return cached;
+    }
+
+    public Integer getExitCode() {
+        return exitCode;
+    }
+
+    public long getCompilationTime() {
+        return compilationTime;
+    }
+
+    public long getRunTime() {
+        return runTime;
+    }
+
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    /**
+     * The limit the job was stopped for, e.g. "time limit of 30000 ms exceeded".
+     */
+    public String getLimit() {
+        return limit;
+    }
+
+    /**
+     * Path of the jar built by the jar and test actions.
+     */
+    public String getArtifact() {
+        return artifact;
+    }
+
+    public List<CompileDiagnostic> getDiagnostics() {
+        return diagnostics;
+    }
+
+    public List<TestResult> getTests() {
+        return tests;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * The result as the text format sends it.
+     */
+    @JsonIgnore
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * A builder holding every field of this result, text included.
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.status = status;
+        builder.cached = cached;
+        builder.exitCode = exitCode;
+        builder.compilationTime = compilationTime;
+        builder.runTime = runTime;
+        builder.totalTime = totalTime;
+        builder.limit = limit;
+        builder.artifact = artifact;
+        builder.diagnostics = diagnostics;
+        builder.tests = tests;
+        builder.output = output;
+        builder.error = error;
+        builder.text = text;
+        return builder;
+    }
+
+    // Read back from JSON by the result cache, "version" is only written
+    @JsonPOJOBuilder(withPrefix = "")
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Builder {
+        private Status status = Status.SUCCESS;
+        private Boolean cached;
+        private Integer exitCode;
+        private long compilationTime = -1;
+        private long runTime = -1;
+        private long totalTime = -1;
+        private String limit;
+        private String artifact;
+        private List<CompileDiagnostic> diagnostics = Collections.emptyList();
+        private List<TestResult> tests;
+        private String output;
+        private String error;
+        private String text;
+
+        public Builder status(Status status) {
+            this.status = status;
+            return this;
+        }
+
+        public Builder cached(boolean cached) {
+            this.cached = cached ? Boolean.TRUE : null;
+            return this;
+        }
+
+        public Builder exitCode(int exitCode) {
+            this.exitCode = exitCode;
+            return this;
+        }
+
+        public Builder compilationTime(long compilationTime) {
+            this.compilationTime = compilationTime;
+            return this;
+        }
+
+        public Builder runTime(long runTime) {
+            this.runTime = runTime;
+            return this;
+        }
+
+        public Builder totalTime(long totalTime) {
+            this.totalTime = totalTime;
+            return this;
+        }
+
+        public Builder limit(String limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        public Builder artifact(String artifact) {
+            this.artifact = artifact;
+            return this;
+        }
+
+        public Builder diagnostics(List<CompileDiagnostic> diagnostics) {
+            this.diagnostics = diagnostics;
+            return this;
+        }
+
+        public Builder tests(List<TestResult> tests) {
+            this.tests = tests;
+            return this;
+        }
+
+        public Builder output(String output) {
+            this.output = output;
+            return this;
+        }
+
+        public Builder error(String error) {
+            this.error = error;
+            return this;
+        }
+
+        public Builder text(String text) {
+            this.text = text;
+            return this;
+        }
+
+        public JobResult build() {
+            return new JobResult(this);
+        }
+    }
+}
@@ -2,26 +2,34 @@ package com.eseo.workers;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.nio.file.Files;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.stream.Stream;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonPOJOBuilder;
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.BuiltinExchangeType;
 import com.rabbitmq.client.Channel;
@@ -32,85 +40,355 @@ import com.rabbitmq.client.DefaultConsumer;
 import com.rabbitmq.client.Envelope;
 
 public class JobWorker {
-    private static final String RESULT_EXCHANGE_NAME = "results_exchange";
     private static final String LIB_DIR = "lib";
     private static final String SRC_DIR = "src/main";
     private static final String TEST_DIR = "src/test";
     private static final String CLASSES_DIR = "classes";
+    private static final String JUNIT_CONSOLE_JAR = "/api/code/junit-platform-console-standalone.jar";
+
+    private static final ClassDataArchives ARCHIVES = ClassDataArchives.fromConfig();
+    private static final JavaCompilerEngine COMPILER = JavaCompilerEngine.fromConfig(ARCHIVES);
+    private static final IncrementalCompiler INCREMENTAL = new IncrementalCompiler(COMPILER,
+            WorkerConfig.INCREMENTAL, WorkerConfig.INCREMENTAL_PROJECTS);
+    private static final LibraryJarCache LIBRARY_CACHE = new LibraryJarCache(WorkerConfig.LIBRARY_CACHE_BYTES,
+            WorkerConfig.LIBRARY_CACHE_FILES);
+    private static final TestShards TEST_SHARDS = TestShards.fromConfig();
+    private static final Workspaces WORKSPACES = Workspaces.fromConfig();
+    private static final ResultCache RESULT_CACHE = WorkerConfig.RESULT_CACHE
+            ? ResultCache.fromConfig(LIBRARY_CACHE) : null;
+    // Warm runner JVMs need the compiled classes in memory
+    private static final RunnerPool RUNNERS = "pool".equalsIgnoreCase(WorkerConfig.RUN_MODE)
+            && COMPILER.supportsMemoryOutput() ? RunnerPool.fromConfig(ARCHIVES) : null;
 
     public static void main(String[] argv) throws Exception {
+        boolean consumesQueue = !"daemon".equalsIgnoreCase(WorkerConfig.MODE);
+        boolean servesHttp = !"queue".equalsIgnoreCase(WorkerConfig.MODE);
+
+        COMPILER.warmUp();
+        if (RUNNERS != null) {
+            RUNNERS.prestart();
+        }
+        Metrics.startServer(WorkerConfig.METRICS_PORT);
+        Profiling.start();
+
+        // Queue and HTTP jobs share the threads, and so the compiler, runners and caches
+        int poolSize = WorkerConfig.POOL_SIZE;
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "job-worker-" + count.incrementAndGet());
+            }
+        });
+        CompileDaemon daemon = servesHttp ? CompileDaemon.fromConfig(executor) : null;
+        ResultPublisher publisher = consumesQueue ? consumeJobs(executor) : null;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (daemon != null) {
+                daemon.stop();
+            }
+            executor.shutdown();
+            try {
+                // Unfinished jobs stay unacknowledged and are redelivered by the broker
+                executor.awaitTermination(WorkerConfig.SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                if (publisher != null) {
+                    publisher.awaitConfirms(WorkerConfig.SHUTDOWN_TIMEOUT_MS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (RUNNERS != null) {
+                RUNNERS.shutdown();
+            }
+        }));
+        if (daemon != null) {
+            daemon.start();
+        }
+    }
+
+    private static ResultPublisher consumeJobs(ExecutorService executor) throws Exception {
         ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost("pfewc-rabbitmq-back.webcube.pfe.dns");
+        factory.setHost(WorkerConfig.AMQP_HOST);
+        factory.setPort(WorkerConfig.AMQP_PORT);
         Connection connection = factory.newConnection();
         Channel channel = connection.createChannel();
 
-        String exchangeName = "jobs_exchange";
-        channel.exchangeDeclare(exchangeName, BuiltinExchangeType.TOPIC);
-        String queueName = channel.queueDeclare().getQueue();
-        channel.queueBind(queueName, exchangeName, "jobs.*");
+        String queueName = declareJobQueue(channel);
+        // Results go out on a channel of their own, confirms for it never wait behind job deliveries
+        ResultPublisher publisher = ResultPublisher.fromConfig(connection.createChannel());
+
+        // Never hold more unacknowledged jobs than there are threads to run them
+        int poolSize = WorkerConfig.POOL_SIZE;
+        channel.basicQos(poolSize);
 
-        System.out.println(" [*] Waiting for jobs.");
+        System.out.println(" [*] Waiting for jobs (" + poolSize + " at a time).");
         Consumer consumer = new DefaultConsumer(channel) {
             @Override
             public void handleDelivery(String consumerTag, Envelope envelope,
                     AMQP.BasicProperties properties, byte[] body) throws IOException {
-                String routingKey = envelope.getRoutingKey();
-                String requestId = routingKey.substring(routingKey.indexOf('.') + 1);
-                long deliveryTag = envelope.getDeliveryTag();
+                Metrics.Stage queueStage = Metrics.start("queue");
+                Metrics.jobStarted();
                 try {
-                    ObjectMapper objectMapper = new ObjectMapper();
-                    Map<String, String> messageMap = objectMapper.readValue(body, Map.class);
-                    String projectPath = messageMap.get("projectPath");
-                    String action = messageMap.get("action");
-
-                    System.out.println(" [x] Received '" + projectPath + "' for action '" + action + "'");
-
-                    if (action != null) {
-                        if (action.equals("test")) {
-                            compileAndJarTest(projectPath, requestId, channel);
-                        } else if (action.equals("jar")) {
-                            compileAndJar(projectPath, requestId, channel);
-                        } else if (action.equals("run")) {
-                            compileAndRun(projectPath, requestId, channel);
-                        } else {
-                            throw new Exception("Unknown action: " + action);
-                        }
-                    } else {
-                        throw new Exception("No action specified");
-                    }
-                    channel.basicAck(deliveryTag, false); // Manual acknowledgment
-                    System.out.println(" [x] Acknowledged"); // Acknowledgment log
-                } catch (Exception e) {
-                    System.err.println(" [!] Error processing message: " + e.getMessage());
-                    e.printStackTrace();
-                    // Optionally, send a negative acknowledgment (basicNack) to requeue the message
-                    channel.basicNack(deliveryTag, false, true);
+                    executor.execute(() -> processJob(envelope, body, channel, publisher, queueStage));
+                } catch (RejectedExecutionException e) {
+                    // Worker is shutting down, give the job back to the broker
+                    nack(channel, envelope.getDeliveryTag());
                 }
             }
         };
         channel.basicConsume(queueName, false, consumer);
+        return publisher;
+    }
+
+    /**
+     * The queue this worker consumes. In "exclusive" mode every worker gets its own
+     * queue and so every job, in "shared" mode the workers compete for the jobs of
+     * one durable queue that keeps them while no worker is up.
+     */
+    private static String declareJobQueue(Channel channel) throws IOException {
+        String exchangeName = "jobs_exchange";
+        channel.exchangeDeclare(exchangeName, BuiltinExchangeType.TOPIC);
+        String queueName;
+        if ("shared".equalsIgnoreCase(WorkerConfig.QUEUE_MODE)) {
+            Map<String, Object> arguments = new HashMap<>();
+            if (WorkerConfig.QUEUE_MAX_PRIORITY > 0) {
+                arguments.put("x-max-priority", WorkerConfig.QUEUE_MAX_PRIORITY);
+            }
+            queueName = channel.queueDeclare(WorkerConfig.QUEUE_NAME, true, false, false, arguments).getQueue();
+        } else {
+            queueName = channel.queueDeclare().getQueue();
+        }
+
+        // Jobs are routed as jobs.<requestId>, or jobs.<action>.<requestId> to reach the workers of one action
+        if (WorkerConfig.QUEUE_ACTIONS.isEmpty()) {
+            channel.queueBind(queueName, exchangeName, "jobs.*");
+            channel.queueBind(queueName, exchangeName, "jobs.*.*");
+        } else {
+            for (String action : WorkerConfig.QUEUE_ACTIONS) {
+                channel.queueBind(queueName, exchangeName, "jobs." + action + ".*");
+            }
+        }
+        System.out.println(" [*] Consuming " + queueName + " (" + WorkerConfig.QUEUE_MODE + ")");
+        return queueName;
+    }
+
+    /**
+     * The result of an identical submission, or null with the key the result of
+     * this one is to be stored under left in cacheKey (null without a result cache).
+     * Hashes the project, so it runs on the job threads.
+     */
+    static JobResult cachedResult(JobRequest request, String[] cacheKey) {
+        if (RESULT_CACHE == null) {
+            return null;
+        }
+        try {
+            String key = RESULT_CACHE.key(request);
+            JobResult result = RESULT_CACHE.get(key, new File(request.getProjectPath()));
+            Metrics.resultCacheLookup(result != null);
+            if (result == null) {
+                cacheKey[0] = key;
+            }
+            return result;
+        } catch (IOException e) {
+            // The job runs as if there were no cache
+            System.err.println(" [!] Result cache lookup failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores the result under the sources the job compiled: they may have changed since the
+     * lookup, and the jar in the project may already be the one of another job.
+     */
+    static void cacheResult(String cacheKey, JobRequest request, ResultStream results) {
+        JobResult result = results.getResult();
+        if (cacheKey == null || result == null) {
+            return;
+        }
+        Map<String, String> compiled = results.getCompiledSources();
+        if (compiled == null) {
+            System.out.println(" [x] Sources changed while compiled, the result is not cached");
+            return;
+        }
+        try {
+            File projectDir = new File(request.getProjectPath());
+            Map<String, String> sources = ResultCache.sources(projectDir);
+            sources.putAll(compiled);
+            RESULT_CACHE.put(RESULT_CACHE.key(request, sources), request.getAction(), projectDir, result,
+                    results.getArtifact());
+        } catch (IOException e) {
+            System.err.println(" [!] Could not cache the result: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compiles and builds, runs or tests the project of a job, its result goes to results.
+     */
+    static void runAction(JobRequest request, ResultStream results) {
+        String action = request.getAction();
+        if (action.equals("test")) {
+            compileAndJarTest(request, results);
+        } else if (action.equals("jar")) {
+            compileAndJar(request, results);
+        } else if (action.equals("run")) {
+            compileAndRun(request, results);
+        } else {
+            compileAndTest(request, results);
+        }
+        if (results.getResult() == null) {
+            finishWithError(results, new IllegalStateException("The job ended without a result"));
+        }
+    }
+
+    // The worker failed rather than the project, the client still gets an answer instead of waiting for one
+    private static void finishWithError(ResultStream results, Exception e) {
+        System.err.println(" [!] Job failed: " + e);
+        e.printStackTrace();
+        results.finish(new JobResult.Builder()
+                .status(JobResult.Status.ERROR)
+                .diagnostics(results.getDiagnostics())
+                .error(String.valueOf(e))
+                .text("Job failed: " + e)
+                .build());
+    }
+
+    private static void processJob(Envelope envelope, byte[] body, Channel channel, ResultPublisher publisher,
+            Metrics.Stage queueStage) {
+        String[] routingKey = envelope.getRoutingKey().split("\\.", 3);
+        String requestId = routingKey[routingKey.length - 1];
+        String routedAction = routingKey.length == 3 ? routingKey[1] : null;
+        long deliveryTag = envelope.getDeliveryTag();
+        Profiling.Job job = Profiling.begin(requestId);
+        queueStage.stop();
+        ResultStream results = null;
+        String action = routedAction;
+        String outcome = "error";
+        try {
+            Metrics.Stage decodeStage = Metrics.start("decode");
+            JobRequest request = JobRequest.decode(body, routedAction);
+            decodeStage.stop();
+            action = request.getAction();
+            job.setAction(action);
+            // Partial results are only published to clients that asked for them
+            results = new ResultStream(publisher, requestId, request.isStream(), request.getResultFormat());
+
+            String received = " [x] Received '" + request.getProjectPath() + "' for action '" + action + "'"
+                    + (request.getPriority() != null ? " (priority " + request.getPriority() + ")" : "");
+            String[] cacheKey = new String[1];
+            JobResult result = cachedResult(request, cacheKey);
+            if (result != null) {
+                System.out.println(received + ", answered from the result cache");
+                results.finish(result);
+            } else {
+                System.out.println(received);
+                runAction(request, results);
+                result = results.getResult();
+            }
+            outcome = result.getStatus().name();
+            acknowledgeWhenPublished(results, channel, deliveryTag);
+            cacheResult(cacheKey[0], request, results);
+        } catch (InvalidJobRequestException e) {
+            // Requeued it would only come back to fail again
+            System.err.println(" [!] Rejected message: " + e.getMessage());
+            outcome = "rejected";
+            reject(channel, deliveryTag);
+        } catch (Exception e) {
+            System.err.println(" [!] Error processing message: " + e.getMessage());
+            e.printStackTrace();
+            // Optionally, send a negative acknowledgment (basicNack) to requeue the message
+            nack(channel, deliveryTag);
+        } finally {
+            if (results != null) {
+                results.close();
+            }
+            Metrics.jobFinished(action, outcome);
+            job.end(outcome);
+        }
+    }
+
+    // Acknowledged once the result is safe with the broker, requeued if it never gets there
+    private static void acknowledgeWhenPublished(ResultStream results, Channel channel, long deliveryTag) {
+        results.published().whenComplete((ignored, e) -> {
+            if (e == null) {
+                ack(channel, deliveryTag); // Manual acknowledgment
+                System.out.println(" [x] Acknowledged"); // Acknowledgment log
+            } else {
+                System.err.println(" [!] " + e.getMessage());
+                nack(channel, deliveryTag);
+            }
+        });
+    }
+
+    // Channels are not thread safe, every job thread goes through these to talk to the broker
+    private static void ack(Channel channel, long deliveryTag) {
+        Metrics.jobDone();
+        try {
+            synchronized (channel) {
+                channel.basicAck(deliveryTag, false);
+            }
+        } catch (IOException e) {
+            System.err.println(" [!] Could not acknowledge delivery " + deliveryTag + ": " + e.getMessage());
+        }
+    }
 
+    private static void reject(Channel channel, long deliveryTag) {
+        Metrics.jobDone();
+        try {
+            synchronized (channel) {
+                channel.basicReject(deliveryTag, false);
+            }
+        } catch (IOException e) {
+            System.err.println(" [!] Could not reject delivery " + deliveryTag + ": " + e.getMessage());
+        }
+    }
+
+    private static void nack(Channel channel, long deliveryTag) {
+        Metrics.jobDone();
+        try {
+            synchronized (channel) {
+                channel.basicNack(deliveryTag, false, true);
+            }
+        } catch (IOException e) {
+            System.err.println(" [!] Could not reject delivery " + deliveryTag + ": " + e.getMessage());
+        }
     }
 
-    private static void compileAndRun(String projectPath, String requestId, Channel channel) {
+    private static void compileAndRun(JobRequest request, ResultStream results) {
+        String projectPath = request.getProjectPath();
+        JobLimits limits = request.limitsFor(JobLimits.forAction("run"));
         long startTime = System.currentTimeMillis();
         long endTime;
         long compilationTime, runTime;
         String result;
-        try {
-            File projectDir = new File(projectPath);
+        File projectDir = new File(projectPath);
+        try (Workspaces.Workspace workspace = WORKSPACES.create(projectDir)) {
             File srcDir = new File(projectDir, "src");
             File libDir = new File(projectDir, "lib");
-            File classesDir = new File(projectDir, "classes");
-            classesDir.mkdir(); // Create classes directory to hold compiled classes
+            File classesDir = workspace.file("classes");
+
+            // Warm runners get the bytecode directly, forked runs load it from the classes directory
+            CompiledClasses compiledClasses = null;
+            if (runsWarm(limits)) {
+                compiledClasses = new CompiledClasses();
+            } else {
+                classesDir.mkdir(); // Create classes directory to hold compiled classes
+            }
 
             // Build the classpath from the jars in the lib directory
+            Metrics.Stage classpathStage = Metrics.start("classpath");
             StringBuilder classpath = new StringBuilder();
+            List<File> libraries = new ArrayList<>();
             for (File file : libDir.listFiles()) {
                 if (file.getName().endsWith(".jar")) {
                     classpath.append(file.getAbsolutePath()).append(File.pathSeparator);
+                    libraries.add(file);
                 }
             }
+            classpathStage.stop();
 
             // Search for Main.java in the src directory
             Path mainJavaPath = Files.walk(srcDir.toPath())
@@ -119,23 +397,41 @@ public class JobWorker {
                     .orElseThrow(() -> new FileNotFoundException("Main.java not found"));
 
             // Compile the source files
-            Process compileProcess = new ProcessBuilder(
-                    "javac",
-                    "-d", classesDir.getAbsolutePath(),
-                    "-cp", classpath.toString(),
-                    "-sourcepath", srcDir.getAbsolutePath(),
-                    mainJavaPath.toString()).directory(projectDir).start();
-            int compileExitCode = compileProcess.waitFor();
+            List<String> options = new ArrayList<>();
+            if (compiledClasses == null) {
+                options.add("-d");
+                options.add(classesDir.getAbsolutePath());
+            }
+            if (request.getJdk() != null) {
+                options.add("--release");
+                options.add(request.getJdk().toString());
+            }
+            options.add("-cp");
+            options.add(classpath.toString());
+            options.add("-sourcepath");
+            options.add(srcDir.getAbsolutePath());
+            CompilationResult compilation = COMPILER.compile(options,
+                    Collections.singletonList(mainJavaPath.toFile()), projectDir, compiledClasses);
+            results.diagnostics(compilation.getDiagnostics());
+            int compileExitCode = compilation.getExitCode();
             endTime = System.currentTimeMillis();
             compilationTime = endTime - startTime;
-            String compilationErrors = logProcessOutput("Compilation", compileProcess);
+            String compilationErrors = compilation.getOutput();
 
             if (compileExitCode != 0) {
                 System.err.println("Compilation failed with exit code " + compileExitCode);
                 result = "Compilation failed with exit code " + compileExitCode + "\n"
                         + "Output: \n" + compilationErrors + "\n"
                         + "Total execution time: " + compilationTime + " ms";
-                sendOutput(result, requestId, channel);
+                results.finish(new JobResult.Builder()
+                        .status(JobResult.Status.COMPILATION_FAILED)
+                        .exitCode(compileExitCode)
+                        .compilationTime(compilationTime)
+                        .totalTime(compilationTime)
+                        .diagnostics(results.getDiagnostics())
+                        .output(compilationErrors)
+                        .text(result)
+                        .build());
                 return; // Exit early if compilation failed
             }
 
@@ -144,153 +440,342 @@ public class JobWorker {
                     .substring(srcDir.getAbsolutePath().length() + 1)
                     .replace(".java", "")
                     .replace(File.separator, ".");
-            Process runProcess = new ProcessBuilder(
-                    "java",
-                    "-cp", classpath.append(classesDir.getAbsolutePath()).toString(),
-                    mainClass).directory(projectDir).start();
-
-            StringBuilder output = new StringBuilder();
-            StringBuilder error = new StringBuilder();
-
-            try (BufferedReader outputReader = new BufferedReader(new InputStreamReader(runProcess.getInputStream()));
-                    BufferedReader errorReader = new BufferedReader(
-                            new InputStreamReader(runProcess.getErrorStream()))) {
-
-                String line;
-                while ((line = outputReader.readLine()) != null) {
-                    output.append(line).append(System.lineSeparator());
-                }
-                while ((line = errorReader.readLine()) != null) {
-                    error.append(line).append(System.lineSeparator());
-                }
+            RunOutcome outcome;
+            Metrics.Stage runStage = Metrics.start("run");
+            if (compiledClasses != null) {
+                mainClass = findMainClass(compiledClasses, mainJavaPath, mainClass);
+                outcome = RUNNERS.run(mainClass, libraries, compiledClasses.asMap(), limits, results);
+            } else {
+                outcome = runForked(mainClass, libraries, classesDir, projectDir, limits, results);
             }
-
-            int runExitCode = runProcess.waitFor();
+            runStage.stop();
+            int runExitCode = outcome.getExitCode();
+            String output = outcome.getOutput();
+            String error = outcome.getError();
 
             endTime = System.currentTimeMillis();
             runTime = endTime - startTime;
 
-            if (runExitCode != 0) {
+            JobResult.Builder jobResult = new JobResult.Builder()
+                    .exitCode(runExitCode)
+                    .compilationTime(compilationTime)
+                    .runTime(outcome.getRunTime())
+                    .totalTime(runTime)
+                    .diagnostics(results.getDiagnostics())
+                    .output(output)
+                    .error(error);
+            if (outcome.getExceededLimit() != null) {
+                String reason = limits.describe(outcome.getExceededLimit());
+                jobResult.status(JobResult.Status.LIMIT_EXCEEDED).limit(reason);
+                System.err.println("Run stopped: " + reason);
+                result = "Compilation successful (" + compilationTime + " ms)\n"
+                        + "Run stopped: " + reason + "\n"
+                        + "Output: \n" + output + error + "\n"
+                        + "Total execution time: " + runTime + " milliseconds";
+            } else if (runExitCode != 0) {
                 System.err.println("Run failed with exit code " + runExitCode);
-                System.err.println("Error output: " + error.toString());
+                System.err.println("Error output: " + error);
+                jobResult.status(JobResult.Status.RUN_FAILED);
                 result = "Compilation successful (" + compilationTime + " ms)\n"
                         + "Run failed with exit code " + runExitCode + "\n"
-                        + "Output: \n" + output.toString() + error.toString() + "\n"
+                        + "Output: \n" + output + error + "\n"
                         + "Total execution time: " + runTime + " milliseconds";
-                sendOutput(result, requestId, channel);
             } else {
                 System.out.println("Run succeeded with output: \n");
-                System.out.println(output.toString());
+                System.out.println(output);
                 result = "Compilation successful (" + compilationTime + " ms)\n"
                         + "Run succeed with exit code " + runExitCode + "\n"
-                        + "Output: \n" + output.toString() + "\n"
+                        + "Output: \n" + output + "\n"
                         + "Total execution time: " + runTime + " milliseconds";
             }
 
-            sendOutput(result, requestId, channel);
+            results.finish(jobResult.text(result).build());
         } catch (Exception e) {
-            e.printStackTrace();
+            finishWithError(results, e);
         }
     }
 
-    private static void compileAndJar(String projectPath, String requestId, Channel channel) {
-        try {
-            File projectDir = new File(projectPath);
-            File srcDir = new File(projectDir, SRC_DIR);
-            File libDir = new File(projectDir, LIB_DIR);
-            File classesDir = new File(projectDir, CLASSES_DIR);
+    // The top level class compiled from Main.java, whatever directory the sources start from
+    private static String findMainClass(CompiledClasses compiledClasses, Path mainJavaPath, String defaultName) {
+        for (String binaryName : compiledClasses.asMap().keySet()) {
+            URI source = compiledClasses.sourceOf(binaryName);
+            if (source != null && binaryName.indexOf('$') == -1
+                    && (binaryName.equals("Main") || binaryName.endsWith(".Main"))
+                    && Paths.get(source).toAbsolutePath().equals(mainJavaPath.toAbsolutePath())) {
+                return binaryName;
+            }
+        }
+        return defaultName;
+    }
+
+    private static RunOutcome runForked(String mainClass, List<File> libraries, File classesDir, File projectDir,
+            JobLimits limits, RunListener listener) throws IOException, InterruptedException {
+        long startTime = System.currentTimeMillis();
+        List<String> command = new ArrayList<>();
+        command.add("java");
+        command.add("-Xmx" + limits.getHeapMb() + "m");
+        command.addAll(Profiling.childJvmOptions("program"));
+        // Lib jars come first on the class path, one archive per content of them
+        ClassDataArchives.Archive archive = ARCHIVES.contentArchive("program", libraries, LIBRARY_CACHE);
+        StringBuilder classpath = new StringBuilder();
+        for (File library : archive.classpath()) {
+            classpath.append(library.getPath()).append(File.pathSeparator);
+        }
+        command.addAll(archive.jvmOptions());
+        command.add("-cp");
+        command.add(classpath.append(classesDir.getAbsolutePath()).toString());
+        command.add(mainClass);
+        Process runProcess = archive.start(new ProcessBuilder(command).directory(projectDir));
+        Metrics.processStarted("program");
+
+        // Both pipes are read while the program runs, a full stderr pipe would block it otherwise
+        ProcessOutput processOutput = ProcessOutput.drain(runProcess, listener);
+        return ProcessWatchdog.waitFor(runProcess, processOutput, limits, startTime);
+    }
+
+
+    // Runner JVMs all have the same heap, a job asking for another one gets a JVM of its own
+    private static boolean runsWarm(JobLimits limits) {
+        return RUNNERS != null && limits.getHeapMb() == WorkerConfig.RUNNER_HEAP_MB;
+    }
+
+    private static void compileAndJar(JobRequest request, ResultStream results) {
+        String projectPath = request.getProjectPath();
+        File projectDir = new File(projectPath);
+        File srcDir = new File(projectDir, SRC_DIR);
+        File libDir = new File(projectDir, LIB_DIR);
+
+        // Keep the bytecode in memory and stream it into the jar when the compiler allows it
+        try (Workspaces.Workspace workspace = WORKSPACES.create(projectDir);
+                IncrementalBuild build = COMPILER.supportsMemoryOutput()
+                        ? INCREMENTAL.begin(projectDir, libraryFingerprint(libDir)) : null) {
+            File classesDir = workspace.file(CLASSES_DIR);
             File classesSrcDir = new File(classesDir, SRC_DIR);
             File classesTestDir = new File(classesDir, TEST_DIR);
-            classesSrcDir.mkdirs(); // Create classes/src directory
-            classesTestDir.mkdirs(); // Create classes/test directory
-
-            String classpath = buildClasspath(libDir, classesSrcDir, classesTestDir);
+            String classpath;
+            if (build != null) {
+                classpath = buildClasspath(libDir);
+            } else {
+                classesSrcDir.mkdirs(); // Create classes/src directory
+                classesTestDir.mkdirs(); // Create classes/test directory
+                classpath = buildClasspath(libDir, classesSrcDir, classesTestDir);
+            }
 
             // compile sources
-            compileJavaFiles(srcDir, classesSrcDir, classpath, projectDir, requestId, channel);
+            if (!compileJavaFiles(srcDir, classesSrcDir, build, classpath, projectDir, request.getJdk(), results)
+                    .isSuccess()) {
+                return;
+            }
 
-            createJarFile(classesSrcDir, projectDir, srcDir, libDir);
+            // The classes are all compiled, the next job on the project need not wait for the jar
+            if (build != null) {
+                build.release();
+            }
+            File jarFile = new File(projectDir, "output.jar");
+            JarLayout layout = request.getJarLayout();
+            if (build != null && build.isUpToDate(jarFile, layout.name())) {
+                System.out.println(" [x] " + jarFile + " is up to date");
+            } else {
+                File builtJar = createJarFile(build == null ? null : build.getClasses(), classesSrcDir, workspace,
+                        jarFile, srcDir, libDir, layout);
+                if (build != null) {
+                    build.recordArtifact(builtJar, layout.name());
+                }
+                keepArtifact(request, results, builtJar);
+                workspace.publish(builtJar, jarFile);
+            }
 
-            sendOutput(projectDir.getAbsolutePath() + "/output.jar", requestId, channel);
+            String artifact = projectDir.getAbsolutePath() + "/output.jar";
+            results.finish(new JobResult.Builder()
+                    .diagnostics(results.getDiagnostics())
+                    .artifact(artifact)
+                    .text(artifact)
+                    .build());
 
         } catch (Exception e) {
-            e.printStackTrace();
-            // Handle exceptions
+            finishWithError(results, e);
         }
     }
 
-    private static void compileAndJarTest(String projectPath, String requestId, Channel channel) {
-        try {
-            File projectDir = new File(projectPath);
-            File srcDir = new File(projectDir, SRC_DIR);
-            File testDir = new File(projectDir, TEST_DIR);
-            File libDir = new File(projectDir, LIB_DIR);
-            File classesDir = new File(projectDir, CLASSES_DIR);
+    private static void compileAndJarTest(JobRequest request, ResultStream results) {
+        String projectPath = request.getProjectPath();
+        File projectDir = new File(projectPath);
+        File srcDir = new File(projectDir, SRC_DIR);
+        File testDir = new File(projectDir, TEST_DIR);
+        File libDir = new File(projectDir, LIB_DIR);
+
+        // Sources and tests share the same in-memory output, so tests see the compiled sources
+        try (Workspaces.Workspace workspace = WORKSPACES.create(projectDir);
+                IncrementalBuild build = COMPILER.supportsMemoryOutput()
+                        ? INCREMENTAL.begin(projectDir, libraryFingerprint(libDir)) : null) {
+            File classesDir = workspace.file(CLASSES_DIR);
             File classesSrcDir = new File(classesDir, "main");
             File classesTestDir = new File(classesDir, "test");
-            classesSrcDir.mkdirs(); // Create classes/src directory
-            classesTestDir.mkdirs(); // Create classes/test directory
-
-            String classpath = buildClasspath(libDir, classesDir, classesTestDir);
+            String classpath;
+            if (build != null) {
+                classpath = buildClasspath(libDir);
+            } else {
+                classesSrcDir.mkdirs(); // Create classes/src directory
+                classesTestDir.mkdirs(); // Create classes/test directory
+                classpath = buildClasspath(libDir, classesDir, classesTestDir);
+            }
 
             // compile sources
-            compileJavaFiles(srcDir, classesDir, classpath, projectDir, requestId, channel);
+            if (!compileJavaFiles(srcDir, classesDir, build, classpath, projectDir, request.getJdk(), results)
+                    .isSuccess()) {
+                return;
+            }
 
-            compileJavaFiles(testDir, classesDir, classpath, projectDir, requestId, channel);
+            if (!compileJavaFiles(testDir, classesDir, build, classpath, projectDir, request.getJdk(), results)
+                    .isSuccess()) {
+                return;
+            }
 
-            createJarFileForTesting(classesDir, projectDir, srcDir, libDir);
+            // The classes are all compiled, the next job on the project need not wait for the jar
+            if (build != null) {
+                build.release();
+            }
+            File jarFile = new File(projectDir, "outputTest.jar");
+            JarLayout layout = request.getJarLayout();
+            if (build != null && build.isUpToDate(jarFile, layout.name())) {
+                System.out.println(" [x] " + jarFile + " is up to date");
+            } else {
+                File builtJar = createJarFileForTesting(build == null ? null : build.getClasses(), classesDir,
+                        workspace, jarFile, srcDir, libDir, layout);
+                if (build != null) {
+                    build.recordArtifact(builtJar, layout.name());
+                }
+                keepArtifact(request, results, builtJar);
+                workspace.publish(builtJar, jarFile);
+            }
 
-            sendOutput(projectDir.getAbsolutePath() + "/outputTest.jar", requestId, channel);
+            String artifact = projectDir.getAbsolutePath() + "/outputTest.jar";
+            results.finish(new JobResult.Builder()
+                    .diagnostics(results.getDiagnostics())
+                    .artifact(artifact)
+                    .text(artifact)
+                    .build());
 
         } catch (Exception e) {
-            e.printStackTrace();
-            // Handle exceptions
+            finishWithError(results, e);
         }
     }
 
-    private static void compileAndTest(String projectPath, String requestId, Channel channel) {
+    private static void compileAndTest(JobRequest request, ResultStream results) {
+        String projectPath = request.getProjectPath();
+        JobLimits limits = request.limitsFor(JobLimits.forAction("junit"));
         long startTime = System.currentTimeMillis();
-        try {
-            File projectDir = new File(projectPath);
-            File srcDir = new File(projectDir, SRC_DIR);
-            File libDir = new File(projectDir, LIB_DIR);
-            File testDir = new File(projectDir, TEST_DIR);
-            File classesDir = new File(projectDir, CLASSES_DIR);
+        File projectDir = new File(projectPath);
+        File srcDir = new File(projectDir, SRC_DIR);
+        File libDir = new File(projectDir, LIB_DIR);
+        File testDir = new File(projectDir, TEST_DIR);
+
+        // Warm runners execute the tests from memory, otherwise the console launcher scans the classes directories
+        try (Workspaces.Workspace workspace = WORKSPACES.create(projectDir);
+                IncrementalBuild build = runsWarm(limits)
+                        ? INCREMENTAL.begin(projectDir, libraryFingerprint(libDir)) : null) {
+            File classesDir = workspace.file(CLASSES_DIR);
             File classesSrcDir = new File(classesDir, SRC_DIR);
             File classesTestDir = new File(classesDir, TEST_DIR);
-            classesSrcDir.mkdirs(); // Create classes/src directory
-            classesTestDir.mkdirs(); // Create classes/test directory
-
-            String classpath = buildClasspath(libDir, classesSrcDir, classesTestDir);
+            String classpath;
+            if (build != null) {
+                classpath = buildClasspath(libDir);
+            } else {
+                classesSrcDir.mkdirs(); // Create classes/src directory
+                classesTestDir.mkdirs(); // Create classes/test directory
+                classpath = buildClasspath(libDir, classesSrcDir, classesTestDir);
+            }
 
             // compile sources
-            compileJavaFiles(srcDir, classesSrcDir, classpath, projectDir, requestId, channel);
+            if (!compileJavaFiles(srcDir, classesSrcDir, build, classpath, projectDir, request.getJdk(), results)
+                    .isSuccess()) {
+                return;
+            }
+            Set<String> sourceClasses = build == null ? null : build.getClasses().asMap().keySet();
 
             // compile tests
-            compileJavaFiles(testDir, classesTestDir, classpath, projectDir, requestId, channel);
+            if (!compileJavaFiles(testDir, classesTestDir, build, classpath, projectDir, request.getJdk(), results)
+                    .isSuccess()) {
+                return;
+            }
+            long compilationTime = System.currentTimeMillis() - startTime;
 
             // run the tests
-            List<TestResult> results = runTests(classesTestDir, classesSrcDir);
-
-            sendOutput(results.toString(), requestId, channel);
+            RunOutcome outcome;
+            Metrics.Stage testStage = Metrics.start("test");
+            if (build != null) {
+                // A copy, the next job on the project may compile while the tests run
+                Map<String, byte[]> classes = build.getClasses().asMap();
+                build.release();
+                List<String> testClasses = new ArrayList<>();
+                for (String binaryName : classes.keySet()) {
+                    if (!sourceClasses.contains(binaryName) && binaryName.indexOf('$') == -1) {
+                        testClasses.add(binaryName);
+                    }
+                }
+                outcome = RUNNERS.runTestShards(TEST_SHARDS.split(testClasses), testLibraryJars(libDir), classes,
+                        limits, results);
+                TEST_SHARDS.record(testClasses, outcome.getTestResults());
+            } else {
+                outcome = runTestsForked(classesTestDir, classesSrcDir, limits);
+                for (TestResult testResult : outcome.getTestResults()) {
+                    results.testFinished(testResult);
+                }
+            }
+            testStage.stop();
+
+            JobResult.Builder jobResult = new JobResult.Builder()
+                    .exitCode(outcome.getExitCode())
+                    .compilationTime(compilationTime)
+                    .runTime(outcome.getRunTime())
+                    .totalTime(System.currentTimeMillis() - startTime)
+                    .diagnostics(results.getDiagnostics())
+                    .tests(outcome.getTestResults());
+            if (outcome.getExceededLimit() != null) {
+                String reason = limits.describe(outcome.getExceededLimit());
+                System.err.println("Tests stopped: " + reason);
+                results.finish(jobResult.status(JobResult.Status.LIMIT_EXCEEDED)
+                        .limit(reason)
+                        .text("Tests stopped: " + reason + "\n" + outcome.getTestResults())
+                        .build());
+            } else {
+                boolean failed = outcome.getTestResults().stream()
+                        .anyMatch(testResult -> "FAILED".equals(testResult.getStatus()));
+                JobResult.Status status;
+                if (failed) {
+                    status = JobResult.Status.TESTS_FAILED;
+                } else if (outcome.getExitCode() != 0 || outcome.getTestResults().isEmpty()) {
+                    // The tests could not be loaded, the launcher crashed, or there was nothing to run
+                    status = JobResult.Status.RUN_FAILED;
+                } else {
+                    status = JobResult.Status.SUCCESS;
+                }
+                results.finish(jobResult.status(status)
+                        .text(outcome.getTestResults().toString())
+                        .build());
+            }
 
         } catch (Exception e) {
-            e.printStackTrace();
-            // Handle exceptions
+            finishWithError(results, e);
         }
         long endTime = System.currentTimeMillis();
         System.out.println("Total execution time: " + (endTime - startTime) + " ms");
     }
 
+    @JsonDeserialize(builder = TestResult.Builder.class)
     public static class TestResult {
         private final String testName;
         private final String status;
         private final String data;
+        private final long duration;
+        private final String stackTrace;
 
         private TestResult(Builder builder) {
             this.testName = builder.testName;
             this.status = builder.status;
             this.data = builder.data;
+            this.duration = builder.duration;
+            this.stackTrace = builder.stackTrace;
         }
 
         public String getTestName() {
@@ -305,15 +790,29 @@ public class JobWorker {
             return data;
         }
 
+        /**
+         * Time taken by the test in milliseconds, -1 when the console launcher ran it.
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        public String getStackTrace() {
+            return stackTrace;
+        }
+
         @Override
         public String toString() {
             return "Test: " + testName + ", Status: " + status + ", Data: " + data;
         }
 
+        @JsonPOJOBuilder(withPrefix = "")
         public static class Builder {
             private String testName;
             private String status;
             private String data;
+            private long duration = -1;
+            private String stackTrace;
 
             public Builder testName(String testName) {
                 this.testName = testName;
@@ -330,49 +829,75 @@ public class JobWorker {
                 return this;
             }
 
+            public Builder duration(long duration) {
+                this.duration = duration;
+                return this;
+            }
+
+            public Builder stackTrace(String stackTrace) {
+                this.stackTrace = stackTrace;
+                return this;
+            }
+
             public TestResult build() {
                 return new TestResult(this);
             }
         }
     }
 
-    private static void compileJavaFiles(File sourceDir, File outputDir, String classpath, File projectDir, String requestId, Channel channel)
-            throws Exception {
-
-        long startTime = System.currentTimeMillis();
-        List<String> command = new ArrayList<>();
-        command.add("javac");
-        command.add("-source");
-        command.add("1.8"); // Specify source compatibility
-        command.add("-target");
-        command.add("1.8"); // Specify target compatibility
-        command.add("-d");
-        command.add(outputDir.getAbsolutePath());
-        command.add("-cp");
-        command.add(classpath);
+    private static CompilationResult compileJavaFiles(File sourceDir, File outputDir, IncrementalBuild build,
+            String classpath, File projectDir, Integer jdk, ResultStream results) throws Exception {
+
+        List<String> options = new ArrayList<>();
+        if (jdk != null) {
+            options.add("--release");
+            options.add(jdk.toString());
+        } else {
+            options.add("-source");
+            options.add("1.8"); // Specify source compatibility
+            options.add("-target");
+            options.add("1.8"); // Specify target compatibility
+        }
+        if (build == null) {
+            options.add("-d");
+            options.add(outputDir.getAbsolutePath());
+        }
+        options.add("-cp");
+        options.add(classpath);
+        List<File> sources = new ArrayList<>();
         try (Stream<Path> paths = Files.walk(sourceDir.toPath())) {
             paths.filter(Files::isRegularFile)
                     .filter(path -> path.toString().endsWith(".java"))
-                    .map(Path::toString)
-                    .forEach(command::add);
+                    .map(Path::toFile)
+                    .forEach(sources::add);
         }
-        ProcessBuilder processBuilder = new ProcessBuilder(command);
-        processBuilder.directory(projectDir);
-        Process compileProcess = processBuilder.start();
-        int compileExitCode = compileProcess.waitFor();
-        long endTime = System.currentTimeMillis();
-        long compilationTime = endTime - startTime;
-        String compilationErrors = logProcessOutput("Compilation", compileProcess);
-        if (compileExitCode != 0) {
-            String result = "Compilation failed with exit code " + compileExitCode + "\n"
-                    + "Output: \n" + compilationErrors + "\n"
-                    + "Total execution time: " + compilationTime + " ms";
-            sendOutput(result, requestId, channel);
-            return;
+        // Hashed again once compiled: a source changed meanwhile, javac may have read either version
+        Map<String, String> hashes = RESULT_CACHE != null ? ResultCache.hashes(projectDir, sources) : null;
+        CompilationResult compilation = build != null
+                ? build.compile(sourceDir, sources, options, projectDir)
+                : COMPILER.compile(options, sources, projectDir);
+        if (hashes != null) {
+            results.compiled(hashes.equals(ResultCache.hashes(projectDir, sources)) ? hashes : null);
+        }
+        results.diagnostics(compilation.getDiagnostics());
+        if (!compilation.isSuccess()) {
+            String result = "Compilation failed with exit code " + compilation.getExitCode() + "\n"
+                    + "Output: \n" + compilation.getOutput() + "\n"
+                    + "Total execution time: " + compilation.getCompilationTime() + " ms";
+            results.finish(new JobResult.Builder()
+                    .status(JobResult.Status.COMPILATION_FAILED)
+                    .exitCode(compilation.getExitCode())
+                    .compilationTime(compilation.getCompilationTime())
+                    .diagnostics(results.getDiagnostics())
+                    .output(compilation.getOutput())
+                    .text(result)
+                    .build());
         }
+        return compilation;
     }
-    
-    private static File createJarFileForTesting(File classesDir, File projectDir, File srcDir, File libDir)
+
+    private static File createJarFileForTesting(CompiledClasses compiledClasses, File classesDir,
+            Workspaces.Workspace workspace, File jarFile, File srcDir, File libDir, JarLayout layout)
             throws IOException, InterruptedException {
 
         Path mainJavaPath = Files.walk(srcDir.toPath())
@@ -386,44 +911,15 @@ public class JobWorker {
                 .replace(".java", "")
                 .replace(File.separator, ".");
 
-        // Define the path of the JAR file
-        File jarFile = new File(projectDir, "outputTest.jar");
-
-        // Create a manifest with the main class
-        Manifest manifest = new Manifest();
-        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
-        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "main." + mainClass);
-
-        // Create the JAR file
-        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(jarFile), manifest)) {
-            addDirectoryToJar(classesDir, jos, classesDir.getAbsolutePath().length() + 1);
-
-            for (File file : libDir.listFiles()) {
-                if (file.getName().endsWith(".jar")) {
-                    try (JarFile libraryJar = new JarFile(file)) {
-                        Enumeration<JarEntry> entries = libraryJar.entries();
-                        while (entries.hasMoreElements()) {
-                            JarEntry entry = entries.nextElement();
-                            if (!entry.isDirectory() && !entry.getName().equalsIgnoreCase("META-INF/MANIFEST.MF")) {
-                                jos.putNextEntry(new JarEntry(entry.getName()));
-                                try (InputStream is = libraryJar.getInputStream(entry)) {
-                                    byte[] buffer = new byte[1024];
-                                    int bytesRead;
-                                    while ((bytesRead = is.read(buffer)) != -1) {
-                                        jos.write(buffer, 0, bytesRead);
-                                    }
-                                }
-                                jos.closeEntry();
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        return jarFile;
+        // Built aside, a job reading the jar of the project never sees it half written
+        File builtJar = workspace.file(jarFile.getName());
+        writeJarFile(builtJar, mainClass, compiledClasses, classesDir, libDir, layout,
+                JarWriter.Compression.forName(WorkerConfig.JAR_COMPRESSION), jarFile);
+        return builtJar;
     }
 
-    private static File createJarFile(File classesDir, File projectDir, File srcDir, File libDir)
+    private static File createJarFile(CompiledClasses compiledClasses, File classesDir,
+            Workspaces.Workspace workspace, File jarFile, File srcDir, File libDir, JarLayout layout)
             throws IOException, InterruptedException {
 
         Path mainJavaPath = Files.walk(srcDir.toPath())
@@ -437,68 +933,112 @@ public class JobWorker {
                 .replace(".java", "")
                 .replace(File.separator, ".");
 
-        // Define the path of the JAR file
-        File jarFile = new File(projectDir, "output.jar");
+        // Built aside, a job reading the jar of the project never sees it half written
+        File builtJar = workspace.file(jarFile.getName());
+        writeJarFile(builtJar, mainClass, compiledClasses, classesDir, libDir, layout,
+                JarWriter.Compression.forName(WorkerConfig.JAR_COMPRESSION), jarFile);
+        return builtJar;
+    }
+
+    static void writeJarFile(File jarFile, String mainClass, CompiledClasses compiledClasses, File classesDir,
+            File libDir) throws IOException {
+        writeJarFile(jarFile, mainClass, compiledClasses, classesDir, libDir, JarLayout.forName(null),
+                JarWriter.Compression.forName(WorkerConfig.JAR_COMPRESSION));
+    }
+
+    static void writeJarFile(File jarFile, String mainClass, CompiledClasses compiledClasses, File classesDir,
+            File libDir, JarLayout layout, JarWriter.Compression compression) throws IOException {
+        writeJarFile(jarFile, mainClass, compiledClasses, classesDir, libDir, layout, compression, jarFile);
+    }
+
+    /**
+     * Writes the jar to jarFile, for a jar run from location (its Class-Path is relative to it).
+     */
+    static void writeJarFile(File jarFile, String mainClass, CompiledClasses compiledClasses, File classesDir,
+            File libDir, JarLayout layout, JarWriter.Compression compression, File location) throws IOException {
+        Metrics.Stage stage = Metrics.start("jar");
+        List<File> libraries = libraryJars(libDir);
+        libraries.sort(Comparator.comparing(File::getName));
 
         // Create a manifest with the main class
         Manifest manifest = new Manifest();
         manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
         manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "main." + mainClass);
+        if (layout == JarLayout.THIN && !libraries.isEmpty()) {
+            manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, manifestClasspath(location, libraries));
+        }
 
         // Create the JAR file
-        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(jarFile), manifest)) {
-            addDirectoryToJar(classesDir, jos, classesDir.getAbsolutePath().length() + 1);
+        try (JarWriter jar = new JarWriter(Files.newOutputStream(jarFile.toPath()), compression)) {
+            jar.writeManifest(manifest);
+            if (compiledClasses != null) {
+                compiledClasses.writeTo(jar);
+            } else {
+                jar.addDirectory(classesDir.toPath());
+            }
 
-            for (File file : libDir.listFiles()) {
-                if (file.getName().endsWith(".jar")) {
-                    try (JarFile libraryJar = new JarFile(file)) {
-                        Enumeration<JarEntry> entries = libraryJar.entries();
-                        while (entries.hasMoreElements()) {
-                            JarEntry entry = entries.nextElement();
-                            if (!entry.isDirectory() && !entry.getName().equalsIgnoreCase("META-INF/MANIFEST.MF")) {
-                                jos.putNextEntry(new JarEntry(entry.getName()));
-                                try (InputStream is = libraryJar.getInputStream(entry)) {
-                                    byte[] buffer = new byte[1024];
-                                    int bytesRead;
-                                    while ((bytesRead = is.read(buffer)) != -1) {
-                                        jos.write(buffer, 0, bytesRead);
-                                    }
-                                }
-                                jos.closeEntry();
-                            }
-                        }
-                    }
+            if (layout == JarLayout.FAT) {
+                // Library entries come from the cache already compressed
+                LibraryMerger merger = new LibraryMerger(jar);
+                for (File library : libraries) {
+                    merger.addLibrary(LIBRARY_CACHE.entries(library));
+                }
+                int duplicates = merger.finish(System.currentTimeMillis());
+                if (duplicates > 0) {
+                    System.out.println(" [x] " + duplicates + " duplicate library entries left out of " + jarFile);
                 }
             }
         }
-        return jarFile;
+        stage.stop();
     }
 
-    private static void addDirectoryToJar(File directory, JarOutputStream jos, int prefixLength)
-            throws IOException {
-        File[] files = directory.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isDirectory()) {
-                    addDirectoryToJar(file, jos, prefixLength);
-                } else {
-                    try (FileInputStream fis = new FileInputStream(file)) {
-                        String name = file.getAbsolutePath().substring(prefixLength).replace(File.separatorChar, '/');
-                        JarEntry entry = new JarEntry(name);
-                        jos.putNextEntry(entry);
-                        byte[] buffer = new byte[1024];
-                        int bytesRead;
-                        while ((bytesRead = fis.read(buffer)) != -1) {
-                            jos.write(buffer, 0, bytesRead);
-                        }
-                        jos.closeEntry();
-                    }
-                }
+    // Class-Path URLs are relative to the jar, so the jar runs wherever it is copied along with lib/
+    private static String manifestClasspath(File jarFile, List<File> libraries) {
+        Path jarDir = jarFile.getAbsoluteFile().getParentFile().toPath();
+        StringBuilder classpath = new StringBuilder();
+        for (File library : libraries) {
+            String path = jarDir.relativize(library.getAbsoluteFile().toPath()).toString()
+                    .replace(File.separatorChar, '/');
+            if (classpath.length() > 0) {
+                classpath.append(' ');
+            }
+            try {
+                classpath.append(new URI(null, null, path, null).getRawPath());
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException(path, e);
             }
         }
+        return classpath.toString();
     }
 
-    private static String buildClasspath(File libDir, File... extraDirs) {
+    private static void keepArtifact(JobRequest request, ResultStream results, File builtJar) throws IOException {
+        if (RESULT_CACHE != null && RESULT_CACHE.keepsArtifacts(request.getAction())) {
+            results.artifact(Files.readAllBytes(builtJar.toPath()));
+        }
+    }
+
+    // The engines of the console launcher run the tests of projects whose lib/ has none
+    private static List<File> testLibraryJars(File libDir) {
+        List<File> libraries = libraryJars(libDir);
+        File consoleJar = new File(JUNIT_CONSOLE_JAR);
+        if (consoleJar.isFile()) {
+            libraries.add(consoleJar);
+        }
+        return libraries;
+    }
+
+    private static List<File> libraryJars(File libDir) {
+        List<File> libraries = new ArrayList<>();
+        for (File file : libDir.listFiles()) {
+            if (file.getName().endsWith(".jar")) {
+                libraries.add(file);
+            }
+        }
+        return libraries;
+    }
+
+    static String buildClasspath(File libDir, File... extraDirs) {
+        Metrics.Stage stage = Metrics.start("classpath");
         StringBuilder classpath = new StringBuilder();
         for (File file : libDir.listFiles()) {
             if (file.getName().endsWith(".jar")) {
@@ -508,38 +1048,31 @@ public class JobWorker {
         for (File extraDir : extraDirs) {
             classpath.append(extraDir.getAbsolutePath()).append(File.pathSeparator);
         }
+        stage.stop();
         return classpath.toString();
     }
 
-    private static String logProcessOutput(String processName, Process process) throws IOException {
-        StringBuilder processOutput = new StringBuilder();
-        StringBuilder processErrors = new StringBuilder();
-
-        System.out.println(processName + " output:");
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                System.out.println(line);
-                processOutput.append(line).append(System.lineSeparator());
-            }
-        }
-
-        System.out.println(processName + " errors:");
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                System.err.println(line);
-                processErrors.append(line).append(System.lineSeparator());
+    // Identifies the set of jars in lib/ by their content, whatever their path
+    private static String libraryFingerprint(File libDir) throws IOException {
+        List<String> hashes = new ArrayList<>();
+        File[] files = libDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(".jar")) {
+                    hashes.add(LIBRARY_CACHE.sha256(file));
+                }
             }
         }
-
-        return processErrors.toString();
+        Collections.sort(hashes);
+        return String.join(",", hashes);
     }
 
-    private static void sendOutput(String output, String requestId, Channel channel) throws Exception {
-        channel.exchangeDeclare(RESULT_EXCHANGE_NAME, "direct", true);
-        channel.basicPublish(RESULT_EXCHANGE_NAME, requestId, null, output.getBytes());
-        System.out.println(" [x] Sent result with routing key: " + requestId);
+    static String logProcessOutput(String processName, ProcessOutput processOutput) {
+        System.out.println(processName + " output:");
+        System.out.print(processOutput.getOutputText());
+        System.out.println(processName + " errors:");
+        System.err.print(processOutput.getErrorText());
+        return processOutput.getErrorText();
     }
 
     public static String mergeStrings(List<String> lines, int startIndex, int endIndex) {
@@ -660,36 +1193,55 @@ public class JobWorker {
 
     public static List<TestResult> runTests(File classesTestDir, File classesSrcDir)
             throws IOException, InterruptedException {
+        return runTestsForked(classesTestDir, classesSrcDir, JobLimits.forAction("junit")).getTestResults();
+    }
+
+    private static RunOutcome runTestsForked(File classesTestDir, File classesSrcDir, JobLimits limits)
+            throws IOException, InterruptedException {
+        long startTime = System.currentTimeMillis();
         List<String> outputLines = new ArrayList<>();
 
         List<String> command = new ArrayList<>();
         command.add("java");
+        command.add("-Xmx" + limits.getHeapMb() + "m");
+        command.addAll(Profiling.childJvmOptions("tests"));
+        ClassDataArchives.Archive archive = ARCHIVES.archive("tests",
+                Collections.singletonList(new File(JUNIT_CONSOLE_JAR)));
+        command.addAll(archive.jvmOptions());
         command.add("-jar");
-        command.add(
-                "/api/code/junit-platform-console-standalone.jar");
+        command.add(JUNIT_CONSOLE_JAR);
         command.add("--class-path");
         command.add(classesSrcDir.getAbsolutePath() + File.pathSeparator + classesTestDir.getAbsolutePath());
         command.add("--scan-class-path");
+        if (WorkerConfig.TEST_SHARDS > 1) {
+            // One JVM here, Jupiter test classes run side by side instead of in shards
+            command.add("--config=junit.jupiter.execution.parallel.enabled=true");
+            command.add("--config=junit.jupiter.execution.parallel.mode.classes.default=concurrent");
+            command.add("--config=junit.jupiter.execution.parallel.config.strategy=fixed");
+            command.add("--config=junit.jupiter.execution.parallel.config.fixed.parallelism="
+                    + WorkerConfig.TEST_SHARDS);
+        }
 
         ProcessBuilder processBuilder = new ProcessBuilder(command);
         processBuilder.redirectErrorStream(true); // Redirect stderr to stdout
-        Process process = processBuilder.start();
+        Process process = archive.start(processBuilder);
+        Metrics.processStarted("tests");
 
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+        RunOutcome outcome = ProcessWatchdog.waitFor(process, ProcessOutput.drain(process), limits, startTime);
+        try (BufferedReader reader = new BufferedReader(new StringReader(outcome.getOutput()))) {
             String line;
             while ((line = reader.readLine()) != null) {
                 System.out.println(line);
                 outputLines.add(line);
             }
         }
-
-        int exitCode = process.waitFor();
-        if (exitCode != 0) {
-            System.err.println("JUnit Platform Console Launcher exited with code: " + exitCode);
+        if (outcome.getExitCode() != 0) {
+            System.err.println("JUnit Platform Console Launcher exited with code: " + outcome.getExitCode());
         }
 
         List<TestResult> testResults = parseTestResults(outputLines);
 
-        return testResults;
+        return new RunOutcome(outcome.getExitCode(), outcome.getOutput(), outcome.getError(), outcome.getRunTime(),
+                testResults, outcome.getExceededLimit());
     }
-}
\ No newline at end of file
+}
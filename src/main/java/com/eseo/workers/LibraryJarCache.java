@@ -0,0 +1,240 @@
+package com.eseo.workers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Entries of the jars found in project lib/ directories, keyed by the SHA-256
+ * of the jar so every project shipping the same library shares one copy. The
+ * entries keep their compressed data and can be copied into a fat jar as is.
+ */
+public class LibraryJarCache {
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int ENCRYPTED_FLAG = 0x0001;
+
+    private final long maxBytes;
+    private final Map<String, CachedLibrary> libraries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, FileHash> hashes;
+    private long cachedBytes;
+
+    public LibraryJarCache(long maxBytes) {
+        this(maxBytes, 10_000);
+    }
+
+    public LibraryJarCache(long maxBytes, int maxHashes) {
+        this.maxBytes = maxBytes;
+        // One per jar path ever seen, every project having its own lib/
+        this.hashes = Collections.synchronizedMap(new LinkedHashMap<String, FileHash>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FileHash> eldest) {
+                return size() > maxHashes;
+            }
+        });
+    }
+
+    /**
+     * Entries of the jar, without directories and without its manifest.
+     */
+    public List<RawJarEntry> entries(File jar) throws IOException {
+        String sha256 = sha256(jar);
+        synchronized (this) {
+            CachedLibrary library = libraries.get(sha256);
+            if (library != null) {
+                return library.entries;
+            }
+        }
+        // Read outside the lock, two jobs may load the same jar but neither blocks the others
+        CachedLibrary library;
+        try {
+            library = readRawEntries(jar);
+        } catch (ZipException e) {
+            System.err.println(" [!] Cannot copy " + jar.getName() + " as is (" + e.getMessage()
+                    + "), its entries are compressed again once");
+            library = readAndDeflateEntries(jar);
+        }
+        synchronized (this) {
+            CachedLibrary existing = libraries.get(sha256);
+            if (existing != null) {
+                return existing.entries;
+            }
+            libraries.put(sha256, library);
+            cachedBytes += library.bytes;
+            evict();
+        }
+        return library.entries;
+    }
+
+    private void evict() {
+        // The most recently used library is kept even when it is bigger than the whole cache
+        while (cachedBytes > maxBytes && libraries.size() > 1) {
+            Map.Entry<String, CachedLibrary> eldest = libraries.entrySet().iterator().next();
+            cachedBytes -= eldest.getValue().bytes;
+            libraries.remove(eldest.getKey());
+        }
+    }
+
+    /**
+     * SHA-256 of the file content, only recomputed when its size or modification time change.
+     */
+    public String sha256(File file) throws IOException {
+        String path = file.getCanonicalPath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+        FileHash known = hashes.get(path);
+        if (known != null && known.size == size && known.lastModified == lastModified) {
+            return known.sha256;
+        }
+        String sha256 = Hashing.sha256(file);
+        hashes.put(path, new FileHash(size, lastModified, sha256));
+        return sha256;
+    }
+
+    private static boolean isCopied(String name) {
+        return !name.endsWith("/") && !name.equalsIgnoreCase(JarFile.MANIFEST_NAME);
+    }
+
+    // Walks the central directory and keeps the compressed bytes of every entry
+    private static CachedLibrary readRawEntries(File jar) throws IOException {
+        try (FileChannel channel = FileChannel.open(jar.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            int tailSize = (int) Math.min(fileSize, 0xFFFF + 22);
+            ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+            int end = -1;
+            for (int i = tailSize - 22; i >= 0; i--) {
+                if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end == -1) {
+                throw new ZipException("no end of central directory");
+            }
+            int entryCount = tail.getShort(end + 10) & 0xFFFF;
+            long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+            long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+            if (entryCount == 0xFFFF || directoryOffset == 0xFFFFFFFFL) {
+                throw new ZipException("zip64 archive");
+            }
+
+            ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+            List<RawJarEntry> entries = new ArrayList<>(entryCount);
+            long bytes = 0;
+            int position = 0;
+            for (int i = 0; i < entryCount; i++) {
+                if (directory.getInt(position) != CENTRAL_HEADER) {
+                    throw new ZipException("bad central directory");
+                }
+                int flags = directory.getShort(position + 8) & 0xFFFF;
+                int method = directory.getShort(position + 10) & 0xFFFF;
+                long dosTime = directory.getInt(position + 12) & 0xFFFFFFFFL;
+                long crc = directory.getInt(position + 16) & 0xFFFFFFFFL;
+                long compressedSize = directory.getInt(position + 20) & 0xFFFFFFFFL;
+                long size = directory.getInt(position + 24) & 0xFFFFFFFFL;
+                int nameLength = directory.getShort(position + 28) & 0xFFFF;
+                int extraLength = directory.getShort(position + 30) & 0xFFFF;
+                int commentLength = directory.getShort(position + 32) & 0xFFFF;
+                long localOffset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+                byte[] nameBytes = new byte[nameLength];
+                directory.position(position + 46);
+                directory.get(nameBytes);
+                String name = new String(nameBytes, StandardCharsets.UTF_8);
+                position += 46 + nameLength + extraLength + commentLength;
+
+                if (!isCopied(name)) {
+                    continue;
+                }
+                if ((flags & ENCRYPTED_FLAG) != 0 || (method != ZipEntry.STORED && method != ZipEntry.DEFLATED)) {
+                    throw new ZipException("unsupported entry " + name);
+                }
+                if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localOffset == 0xFFFFFFFFL) {
+                    throw new ZipException("zip64 entry " + name);
+                }
+
+                // The local header may carry a different extra field than the central one
+                ByteBuffer local = read(channel, localOffset, 30);
+                if (local.getInt(0) != LOCAL_HEADER) {
+                    throw new ZipException("bad local header for " + name);
+                }
+                long dataOffset = localOffset + 30 + (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF);
+                ByteBuffer data = read(channel, dataOffset, (int) compressedSize);
+                byte[] compressed = new byte[(int) compressedSize];
+                data.get(compressed);
+
+                entries.add(new RawJarEntry(name, method, crc, size, dosTime, compressed));
+                bytes += compressedSize;
+            }
+            return new CachedLibrary(entries, bytes);
+        }
+    }
+
+    private static CachedLibrary readAndDeflateEntries(File jar) throws IOException {
+        List<RawJarEntry> entries = new ArrayList<>();
+        long bytes = 0;
+        try (JarFile libraryJar = new JarFile(jar)) {
+            Enumeration<JarEntry> jarEntries = libraryJar.entries();
+            while (jarEntries.hasMoreElements()) {
+                JarEntry entry = jarEntries.nextElement();
+                if (!entry.isDirectory() && isCopied(entry.getName())) {
+                    try (InputStream is = libraryJar.getInputStream(entry)) {
+                        RawJarEntry rawEntry = RawJarEntry.deflate(entry.getName(), is.readAllBytes(),
+                                entry.getTime());
+                        entries.add(rawEntry);
+                        bytes += rawEntry.getCompressedSize();
+                    }
+                }
+            }
+        }
+        return new CachedLibrary(entries, bytes);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new ZipException("truncated archive");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static final class CachedLibrary {
+        private final List<RawJarEntry> entries;
+        private final long bytes;
+
+        CachedLibrary(List<RawJarEntry> entries, long bytes) {
+            this.entries = Collections.unmodifiableList(entries);
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class FileHash {
+        private final long size;
+        private final long lastModified;
+        private final String sha256;
+
+        FileHash(long size, long lastModified, String sha256) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.sha256 = sha256;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.eseo.workers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copies the entries of lib/ jars into a fat jar. Service files of the same
+ * name are concatenated so every implementation stays registered, signatures
+ * and module descriptors are dropped since they no longer match the merged
+ * jar, and for any other name the first entry wins.
+ */
+public class LibraryMerger {
+    private static final String SERVICES = "META-INF/services/";
+
+    private final JarWriter jar;
+    private final Map<String, Set<String>> services = new LinkedHashMap<>();
+    private int duplicates;
+
+    public LibraryMerger(JarWriter jar) {
+        this.jar = jar;
+    }
+
+    public void addLibrary(List<RawJarEntry> entries) throws IOException {
+        for (RawJarEntry entry : entries) {
+            String name = entry.getName();
+            if (isSignature(name) || isModuleDescriptor(name)) {
+                continue;
+            }
+            if (name.startsWith(SERVICES) && name.indexOf('/', SERVICES.length()) < 0) {
+                Set<String> providers = services.computeIfAbsent(name, key -> new LinkedHashSet<>());
+                for (String line : new String(entry.inflate(), StandardCharsets.UTF_8).split("\r?\n|\r")) {
+                    int comment = line.indexOf('#');
+                    String provider = (comment < 0 ? line : line.substring(0, comment)).trim();
+                    if (!provider.isEmpty()) {
+                        providers.add(provider);
+                    }
+                }
+            } else if (!jar.addRawEntry(entry)) {
+                duplicates++;
+            }
+        }
+    }
+
+    /**
+     * Writes the merged service files, a service file of the project itself is kept as it is.
+     * Returns the number of library entries skipped because an entry of that name was already there.
+     */
+    public int finish(long lastModified) throws IOException {
+        for (Map.Entry<String, Set<String>> service : services.entrySet()) {
+            String content = String.join("\n", service.getValue()) + "\n";
+            jar.addEntry(service.getKey(), content.getBytes(StandardCharsets.UTF_8), lastModified);
+        }
+        return duplicates;
+    }
+
+    private static boolean isSignature(String name) {
+        String upperName = name.toUpperCase(Locale.ROOT);
+        if (!upperName.startsWith("META-INF/") || upperName.indexOf('/', "META-INF/".length()) >= 0) {
+            return false;
+        }
+        return upperName.endsWith(".SF") || upperName.endsWith(".DSA") || upperName.endsWith(".RSA")
+                || upperName.endsWith(".EC") || upperName.startsWith("META-INF/SIG-");
+    }
+
+    private static boolean isModuleDescriptor(String name) {
+        return name.equals("module-info.class")
+                || (name.startsWith("META-INF/versions/") && name.endsWith("/module-info.class"));
+    }
+}
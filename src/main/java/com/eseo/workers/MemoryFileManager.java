@@ -0,0 +1,119 @@
+package com.eseo.workers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * Keeps class files produced by javac in a {@link CompiledClasses} instead of
+ * writing them to disk. Classes already in the store are visible on the class
+ * path, so tests can be compiled against sources compiled earlier in the job.
+ */
+class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+    private final CompiledClasses output;
+
+    MemoryFileManager(StandardJavaFileManager fileManager, CompiledClasses output) {
+        super(fileManager);
+        this.output = output;
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+            FileObject sibling) throws IOException {
+        if (location == StandardLocation.CLASS_OUTPUT && kind == JavaFileObject.Kind.CLASS) {
+            return new MemoryClassFile(className, sibling == null ? null : sibling.toUri());
+        }
+        return super.getJavaFileForOutput(location, className, kind, sibling);
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds,
+            boolean recurse) throws IOException {
+        Iterable<JavaFileObject> files = super.list(location, packageName, kinds, recurse);
+        if (location != StandardLocation.CLASS_PATH || !kinds.contains(JavaFileObject.Kind.CLASS)) {
+            return files;
+        }
+        List<JavaFileObject> merged = new ArrayList<>();
+        String prefix = packageName.isEmpty() ? "" : packageName + ".";
+        for (Map.Entry<String, byte[]> compiledClass : output.asMap().entrySet()) {
+            String binaryName = compiledClass.getKey();
+            if (binaryName.startsWith(prefix)
+                    && (recurse || binaryName.indexOf('.', prefix.length()) == -1)) {
+                merged.add(new MemoryClassFile(binaryName, compiledClass.getValue()));
+            }
+        }
+        for (JavaFileObject file : files) {
+            merged.add(file);
+        }
+        return merged;
+    }
+
+    @Override
+    public String inferBinaryName(Location location, JavaFileObject file) {
+        if (file instanceof MemoryClassFile) {
+            return ((MemoryClassFile) file).binaryName;
+        }
+        return super.inferBinaryName(location, file);
+    }
+
+    @Override
+    public boolean hasLocation(Location location) {
+        return location == StandardLocation.CLASS_OUTPUT || super.hasLocation(location);
+    }
+
+    private final class MemoryClassFile extends SimpleJavaFileObject {
+        private final String binaryName;
+        private final byte[] bytecode;
+        private final URI source;
+
+        // A class file javac is about to write
+        MemoryClassFile(String binaryName, URI source) {
+            super(URI.create("mem:///" + CompiledClasses.entryName(binaryName)), Kind.CLASS);
+            this.binaryName = binaryName;
+            this.bytecode = null;
+            this.source = source;
+        }
+
+        // A class file compiled earlier, read back as a dependency
+        MemoryClassFile(String binaryName, byte[] bytecode) {
+            super(URI.create("mem:///" + CompiledClasses.entryName(binaryName)), Kind.CLASS);
+            this.binaryName = binaryName;
+            this.bytecode = bytecode;
+            this.source = null;
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            byte[] stored = bytecode != null ? bytecode : output.get(binaryName);
+            if (stored == null) {
+                throw new IOException(binaryName + " has not been compiled");
+            }
+            return new ByteArrayInputStream(stored);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    output.put(binaryName, toByteArray(), source);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.eseo.workers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+
+/**
+ * Metrics of the worker, scraped by Prometheus at /metrics on WORKER_METRICS_PORT:
+ *
+ * <pre>
+ * worker_job_stage_seconds{stage}       time of each stage of a job (queue, decode, classpath, compile, jar,
+ *                                       run, test, publish), with histogram buckets
+ * worker_jobs_total{action,outcome}     finished jobs by JobResult status, "rejected" or "error"
+ * worker_jobs_in_flight                 jobs taken from the queue and not acknowledged yet
+ * worker_processes_started_total{kind}  child processes started (program, tests, runner, javac)
+ * worker_result_cache_lookups_total{result}  result cache hits and misses
+ * </pre>
+ */
+public final class Metrics {
+    public static final PrometheusMeterRegistry REGISTRY = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+    private static final AtomicInteger IN_FLIGHT = new AtomicInteger();
+
+    static {
+        Gauge.builder("worker.jobs.in.flight", IN_FLIGHT, AtomicInteger::get)
+                .description("Jobs taken from the queue and not acknowledged yet")
+                .register(REGISTRY);
+        new JvmMemoryMetrics().bindTo(REGISTRY);
+        new JvmGcMetrics().bindTo(REGISTRY);
+        new JvmThreadMetrics().bindTo(REGISTRY);
+        new ProcessorMetrics().bindTo(REGISTRY);
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Serves the metrics on the given port, 0 does not serve them.
+     */
+    public static void startServer(int port) throws IOException {
+        if (port <= 0) {
+            return;
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = REGISTRY.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        // Scrapes are rare and short, they do not need a thread of their own each
+        server.setExecutor(null);
+        server.start();
+        System.out.println(" [*] Metrics on http://localhost:" + port + "/metrics");
+    }
+
+    /**
+     * Starts timing a stage of the current job, also recorded as a JFR event.
+     */
+    public static Stage start(String stage) {
+        return new Stage(stage);
+    }
+
+    public static void jobFinished(String action, String outcome) {
+        Counter.builder("worker.jobs")
+                .description("Finished jobs by outcome")
+                .tag("action", action == null ? "none" : action)
+                .tag("outcome", outcome)
+                .register(REGISTRY)
+                .increment();
+    }
+
+    public static void resultCacheLookup(boolean hit) {
+        Counter.builder("worker.result.cache.lookups")
+                .description("Result cache lookups by outcome")
+                .tag("result", hit ? "hit" : "miss")
+                .register(REGISTRY)
+                .increment();
+    }
+
+    public static void processStarted(String kind) {
+        Counter.builder("worker.processes.started")
+                .description("Child processes started")
+                .tag("kind", kind)
+                .register(REGISTRY)
+                .increment();
+    }
+
+    public static void jobStarted() {
+        IN_FLIGHT.incrementAndGet();
+    }
+
+    public static void jobDone() {
+        IN_FLIGHT.decrementAndGet();
+    }
+
+    /**
+     * One stage of a job, stopped on the thread that started it or on another one (publish).
+     */
+    public static final class Stage {
+        private final String name;
+        private final long startNanos = System.nanoTime();
+        private final StageEvent event = new StageEvent();
+
+        private Stage(String name) {
+            this.name = name;
+            Profiling.describe(event);
+            event.begin();
+        }
+
+        public void stop() {
+            Timer.builder("worker.job.stage")
+                    .description("Time of one stage of a job")
+                    .tag("stage", name)
+                    .publishPercentileHistogram()
+                    .register(REGISTRY)
+                    .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = name;
+                Profiling.describe(event);
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.eseo.workers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the stdout and stderr of a child process at the same time, as soon as
+ * it is started, so a process filling one pipe while we wait on the other can
+ * never block. What is read is kept in {@link BoundedOutput}s and given to a
+ * listener as it arrives.
+ */
+public final class ProcessOutput {
+    private static final AtomicInteger DRAINER_IDS = new AtomicInteger();
+    private static final ExecutorService DRAINERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "process-drain-" + DRAINER_IDS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Process process;
+    private final BoundedOutput output;
+    private final BoundedOutput error;
+    private final Future<?> outputDrain;
+    private final Future<?> errorDrain;
+
+    private ProcessOutput(Process process, int maxBytes, RunListener listener) {
+        this.process = process;
+        this.output = new BoundedOutput(maxBytes);
+        this.error = new BoundedOutput(maxBytes);
+        this.outputDrain = DRAINERS.submit(() -> {
+            drain(process.getInputStream(), output, listener::output);
+            return null;
+        });
+        this.errorDrain = DRAINERS.submit(() -> {
+            drain(process.getErrorStream(), error, listener::error);
+            return null;
+        });
+    }
+
+    public static ProcessOutput drain(Process process, RunListener listener) {
+        return new ProcessOutput(process, WorkerConfig.OUTPUT_MAX_BYTES, listener);
+    }
+
+    public static ProcessOutput drain(Process process) {
+        return drain(process, RunListener.NONE);
+    }
+
+    private static void drain(InputStream stream, BoundedOutput target, ChunkListener listener) throws IOException {
+        byte[] buffer = new byte[8192];
+        try (InputStream in = stream) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                target.write(buffer, 0, read);
+                listener.chunk(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Waits until both streams reached their end, which happens once the process
+     * and every child it started that shares its pipes are gone.
+     */
+    public void await() throws IOException, InterruptedException {
+        await(outputDrain);
+        await(errorDrain);
+    }
+
+    /**
+     * Waits at most the given time for both streams to end, then closes them.
+     */
+    public void await(long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            await(outputDrain, deadline);
+            await(errorDrain, deadline);
+        } catch (TimeoutException e) {
+            process.getInputStream().close();
+            process.getErrorStream().close();
+        }
+    }
+
+    private static void await(Future<?> drain, long deadline)
+            throws IOException, InterruptedException, TimeoutException {
+        try {
+            drain.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            throw drainFailure(e);
+        }
+    }
+
+    private static IOException drainFailure(ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+            return (IOException) e.getCause();
+        }
+        return new IOException(e.getCause());
+    }
+
+    private static void await(Future<?> drain) throws IOException, InterruptedException {
+        try {
+            drain.get();
+        } catch (ExecutionException e) {
+            throw drainFailure(e);
+        }
+    }
+
+    public BoundedOutput getOutput() {
+        return output;
+    }
+
+    public BoundedOutput getError() {
+        return error;
+    }
+
+    public String getOutputText() {
+        return output.toString(Charset.defaultCharset());
+    }
+
+    public String getErrorText() {
+        return error.toString(Charset.defaultCharset());
+    }
+
+    private interface ChunkListener {
+        void chunk(byte[] bytes, int offset, int length);
+    }
+}
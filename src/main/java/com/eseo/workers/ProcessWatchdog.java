@@ -0,0 +1,126 @@
+package com.eseo.workers;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Checks a running process against the limits of its job a few times per
+ * second, and kills it with every process it started as soon as one is exceeded.
+ */
+public final class ProcessWatchdog {
+    private static final long CHECK_INTERVAL_MS = 50;
+    // Processes started in the background by the program can keep its pipes open after it exited
+    private static final long PIPE_CLOSE_TIMEOUT_MS = 1000;
+
+    private static final ScheduledExecutorService CHECKER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "process-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ProcessWatchdog() {
+    }
+
+    /**
+     * Starts watching the process, the CPU time it used so far is not counted.
+     */
+    public static Watch watch(Process process, JobLimits limits, LongSupplier outputBytes) {
+        return new Watch(process, limits, outputBytes);
+    }
+
+    /**
+     * Waits for a forked process and for the end of its output, killing its tree
+     * if it goes over a limit.
+     */
+    public static RunOutcome waitFor(Process process, ProcessOutput processOutput, JobLimits limits, long startTime)
+            throws IOException, InterruptedException {
+        Watch watch = watch(process, limits,
+                () -> processOutput.getOutput().getTotalBytes() + processOutput.getError().getTotalBytes());
+        int exitCode;
+        try {
+            exitCode = process.waitFor();
+        } finally {
+            watch.cancel();
+        }
+        processOutput.await(PIPE_CLOSE_TIMEOUT_MS);
+        return new RunOutcome(exitCode, processOutput.getOutputText(), processOutput.getErrorText(),
+                System.currentTimeMillis() - startTime, watch.getExceeded());
+    }
+
+    public static void killTree(Process process) {
+        ProcessHandle handle = process.toHandle();
+        // Parent first so it cannot react to its children dying, listed before they become orphans
+        List<ProcessHandle> descendants = handle.descendants().collect(Collectors.toList());
+        handle.destroyForcibly();
+        descendants.forEach(ProcessHandle::destroyForcibly);
+    }
+
+    private static long cpuTimeMillis(ProcessHandle handle) {
+        long cpuTime = cpuTimeOf(handle);
+        for (ProcessHandle descendant : (Iterable<ProcessHandle>) handle.descendants()::iterator) {
+            cpuTime += cpuTimeOf(descendant);
+        }
+        return cpuTime;
+    }
+
+    private static long cpuTimeOf(ProcessHandle handle) {
+        return handle.info().totalCpuDuration().map(Duration::toMillis).orElse(0L);
+    }
+
+    public static final class Watch {
+        private final Process process;
+        private final JobLimits limits;
+        private final LongSupplier outputBytes;
+        private final long startTime = System.nanoTime();
+        private final long startCpuTime;
+        private final ScheduledFuture<?> check;
+        private volatile JobLimits.Limit exceeded;
+
+        private Watch(Process process, JobLimits limits, LongSupplier outputBytes) {
+            this.process = process;
+            this.limits = limits;
+            this.outputBytes = outputBytes;
+            this.startCpuTime = cpuTimeMillis(process.toHandle());
+            this.check = CHECKER.scheduleWithFixedDelay(this::check, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        private void check() {
+            if (!process.isAlive()) {
+                check.cancel(false);
+                return;
+            }
+            JobLimits.Limit limit = null;
+            if ((System.nanoTime() - startTime) / 1000000 > limits.getWallTimeMillis()) {
+                limit = JobLimits.Limit.WALL_TIME;
+            } else if (outputBytes.getAsLong() > limits.getOutputBytes()) {
+                limit = JobLimits.Limit.OUTPUT;
+            } else if (cpuTimeMillis(process.toHandle()) - startCpuTime > limits.getCpuTimeMillis()) {
+                limit = JobLimits.Limit.CPU_TIME;
+            }
+            if (limit != null) {
+                exceeded = limit;
+                check.cancel(false);
+                killTree(process);
+            }
+        }
+
+        /**
+         * The limit the process was killed for, null while it stayed within its limits.
+         */
+        public JobLimits.Limit getExceeded() {
+            return exceeded;
+        }
+
+        public void cancel() {
+            check.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.eseo.workers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * Flight Recorder capture of slow jobs, turned on with WORKER_PROFILE.
+ *
+ * The worker keeps a continuous recording in memory and on disk. When a job
+ * takes longer than WORKER_PROFILE_THRESHOLD_MS the recording is dumped to
+ * WORKER_PROFILE_DIR as {@code <requestId>-<action>.jfr}, next to the
+ * recordings of the program and test JVMs forked for that job. Recordings of
+ * faster jobs are deleted. Stage and Job events carry the request id so that
+ * a dump can be narrowed down to one job in JDK Mission Control.
+ */
+public final class Profiling {
+    private static final ThreadLocal<Job> CURRENT = new ThreadLocal<>();
+
+    private static Recording recording;
+
+    private Profiling() {
+    }
+
+    /**
+     * Starts the continuous recording when profiling is enabled.
+     */
+    public static synchronized void start() throws IOException, ParseException {
+        if (!WorkerConfig.PROFILE || recording != null) {
+            return;
+        }
+        Files.createDirectories(Paths.get(WorkerConfig.PROFILE_DIR));
+        recording = new Recording(Configuration.getConfiguration("profile"));
+        recording.setName("worker");
+        recording.setToDisk(true);
+        recording.setMaxAge(Duration.ofMillis(Math.max(WorkerConfig.PROFILE_THRESHOLD_MS * 3, 60000)));
+        recording.setMaxSize(256L * 1024 * 1024);
+        recording.start();
+        System.out.println(" [*] Profiling jobs slower than " + WorkerConfig.PROFILE_THRESHOLD_MS + " ms into "
+                + WorkerConfig.PROFILE_DIR);
+    }
+
+    /**
+     * Starts a job on the current thread, until {@link Job#end(String)}.
+     */
+    public static Job begin(String requestId) {
+        Job job = new Job(requestId);
+        CURRENT.set(job);
+        return job;
+    }
+
+    /**
+     * Options making a JVM forked for the current job record itself, none when profiling is off.
+     */
+    static List<String> childJvmOptions(String kind) {
+        Job job = CURRENT.get();
+        if (!WorkerConfig.PROFILE || !WorkerConfig.PROFILE_CHILDREN || job == null) {
+            return Collections.emptyList();
+        }
+        Path file = Paths.get(WorkerConfig.PROFILE_DIR, job.fileName(kind + "-" + (job.childFiles.size() + 1)));
+        job.childFiles.add(file);
+        return Arrays.asList("-Xlog:jfr+startup=off",
+                "-XX:StartFlightRecording=filename=" + file + ",dumponexit=true,settings=profile");
+    }
+
+    static void describe(JobContextEvent event) {
+        Job job = CURRENT.get();
+        if (job != null) {
+            if (event.requestId == null) {
+                event.requestId = job.requestId;
+            }
+            if (event.action == null) {
+                event.action = job.action;
+            }
+        }
+    }
+
+    private static void prune() throws IOException {
+        File[] files = new File(WorkerConfig.PROFILE_DIR).listFiles((dir, name) -> name.endsWith(".jfr"));
+        if (files == null || files.length <= WorkerConfig.PROFILE_MAX_FILES) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length - WorkerConfig.PROFILE_MAX_FILES; i++) {
+            Files.deleteIfExists(files[i].toPath());
+        }
+    }
+
+    /**
+     * A job being processed on one thread.
+     */
+    public static final class Job {
+        private final String requestId;
+        private final long startNanos = System.nanoTime();
+        private final JobEvent event = new JobEvent();
+        private final List<Path> childFiles = new ArrayList<>();
+        private String action;
+
+        private Job(String requestId) {
+            this.requestId = requestId;
+            event.begin();
+        }
+
+        public void setAction(String action) {
+            this.action = action;
+        }
+
+        /**
+         * Commits the Job event, then keeps the recordings if the job was slow.
+         */
+        public void end(String outcome) {
+            CURRENT.remove();
+            event.end();
+            if (event.shouldCommit()) {
+                event.requestId = requestId;
+                event.action = action;
+                event.outcome = outcome;
+                event.commit();
+            }
+            if (!WorkerConfig.PROFILE) {
+                return;
+            }
+            long millis = (System.nanoTime() - startNanos) / 1000000;
+            try {
+                if (millis >= WorkerConfig.PROFILE_THRESHOLD_MS && recording != null) {
+                    Path file = Paths.get(WorkerConfig.PROFILE_DIR, fileName(action == null ? "job" : action));
+                    recording.dump(file);
+                    System.out.println(" [x] Job " + requestId + " took " + millis + " ms, recorded in " + file);
+                } else {
+                    for (Path childFile : childFiles) {
+                        Files.deleteIfExists(childFile);
+                    }
+                }
+                prune();
+            } catch (IOException e) {
+                System.err.println(" [!] Could not save the recording of job " + requestId + ": " + e.getMessage());
+            }
+        }
+
+        private String fileName(String suffix) {
+            String id = requestId == null ? Long.toString(startNanos) : requestId;
+            return id.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + suffix + ".jfr";
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.eseo.workers;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * What the last successful build of a project produced: for every source root,
+ * the hash of each source file with the classes compiled from it, and the jars
+ * built from those classes.
+ */
+class ProjectBuildIndex {
+    final ReentrantLock lock = new ReentrantLock();
+    final Map<String, RootState> roots = new HashMap<>();
+    final Map<String, ArtifactState> artifacts = new HashMap<>();
+
+    static final class RootState {
+        final String optionsKey;
+        // By path relative to the source root
+        final Map<String, SourceState> sources;
+
+        RootState(String optionsKey, Map<String, SourceState> sources) {
+            this.optionsKey = optionsKey;
+            this.sources = sources;
+        }
+    }
+
+    static final class SourceState {
+        final String sha256;
+        final Map<String, byte[]> classes;
+        final Set<String> referencedClasses;
+        final Map<String, Map<String, Object>> constants;
+
+        SourceState(String sha256, Map<String, byte[]> classes, Set<String> referencedClasses,
+                Map<String, Map<String, Object>> constants) {
+            this.sha256 = sha256;
+            this.classes = Collections.unmodifiableMap(classes);
+            this.referencedClasses = Collections.unmodifiableSet(referencedClasses);
+            this.constants = Collections.unmodifiableMap(constants);
+        }
+
+        boolean references(Set<String> classNames) {
+            for (String className : referencedClasses) {
+                if (classNames.contains(className)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    static final class ArtifactState {
+        final String inputsKey;
+        final long length;
+        final long lastModified;
+
+        ArtifactState(String inputsKey, long length, long lastModified) {
+            this.inputsKey = inputsKey;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+}
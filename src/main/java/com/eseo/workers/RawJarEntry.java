@@ -0,0 +1,142 @@
+package com.eseo.workers;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A jar entry whose data is already in its final (stored or deflated) form,
+ * so it can be copied into a new jar without being compressed again.
+ */
+public class RawJarEntry {
+    // Deflaters hold native buffers that are costly to allocate for every class
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(
+            () -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+    private final String name;
+    private final int method;
+    private final long crc;
+    private final long size;
+    private final long dosTime;
+    private final byte[] data;
+
+    public RawJarEntry(String name, int method, long crc, long size, long dosTime, byte[] data) {
+        this.name = name;
+        this.method = method;
+        this.crc = crc;
+        this.size = size;
+        this.dosTime = dosTime;
+        this.data = data;
+    }
+
+    /**
+     * Compresses the given bytes the way a {@link java.util.jar.JarOutputStream} would.
+     */
+    public static RawJarEntry deflate(String name, byte[] bytes, long lastModified) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+
+        Deflater deflater = DEFLATERS.get();
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, bytes.length / 2));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                compressed.write(buffer, 0, length);
+            }
+            return new RawJarEntry(name, ZipEntry.DEFLATED, crc.getValue(), bytes.length, toDosTime(lastModified),
+                    compressed.toByteArray());
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    /**
+     * Keeps the given bytes uncompressed, for jars that are read once and thrown away.
+     */
+    public static RawJarEntry store(String name, byte[] bytes, long lastModified) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return new RawJarEntry(name, ZipEntry.STORED, crc.getValue(), bytes.length, toDosTime(lastModified), bytes);
+    }
+
+    /**
+     * The uncompressed content of the entry.
+     */
+    public byte[] inflate() throws ZipException {
+        if (method == ZipEntry.STORED) {
+            return data;
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            byte[] bytes = new byte[(int) size];
+            int length = 0;
+            while (length < bytes.length && !inflater.finished()) {
+                int read = inflater.inflate(bytes, length, bytes.length - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += read;
+            }
+            if (length != bytes.length) {
+                throw new ZipException("truncated entry " + name);
+            }
+            return bytes;
+        } catch (DataFormatException e) {
+            throw new ZipException("corrupt entry " + name + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public static long toDosTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16); // 1980-01-01, the earliest date a zip can hold
+        }
+        return (time.getYear() - 1980L) << 25
+                | (long) time.getMonthValue() << 21
+                | (long) time.getDayOfMonth() << 16
+                | (long) time.getHour() << 11
+                | (long) time.getMinute() << 5
+                | (long) time.getSecond() >> 1;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMethod() {
+        return method;
+    }
+
+    public long getCrc() {
+        return crc;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getCompressedSize() {
+        return data.length;
+    }
+
+    public long getDosTime() {
+        return dosTime;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
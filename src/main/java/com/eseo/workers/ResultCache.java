@@ -0,0 +1,306 @@
+package com.eseo.workers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Results of submissions already seen, so that the many students sending the
+ * same project get its result without compiling or running it again. A result
+ * is keyed by the SHA-256 of everything that can change it: the files under
+ * src/, the lib jars, the action, the JDK, the jar layout and the limits. It is
+ * stored under the sources as they were compiled, which may have changed since
+ * the job looked the key up.
+ *
+ * Failed compilations are kept for every action, other results only for the
+ * actions whose results do not change between runs (jar by default), and never
+ * when a limit was exceeded or the worker failed. Jar actions keep their jar,
+ * written again into the project on a hit. Paths of the project the result was
+ * computed for are replaced with the path of the project asking for it.
+ *
+ * Entries are kept in memory and on disk, each bounded in bytes and evicting
+ * the least recently used entries first.
+ */
+public class ResultCache {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String PROJECT_DIR = "${projectDir}";
+
+    private final LibraryJarCache libraries;
+    private final Set<String> actions;
+    private final long maxBytes;
+    private final File dir;
+    private final long maxDiskBytes;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    public ResultCache(LibraryJarCache libraries, List<String> actions, long maxBytes, File dir, long maxDiskBytes) {
+        this.libraries = libraries;
+        this.actions = new HashSet<>(actions);
+        this.maxBytes = maxBytes;
+        this.dir = dir;
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    public static ResultCache fromConfig(LibraryJarCache libraries) {
+        return new ResultCache(libraries, WorkerConfig.RESULT_CACHE_ACTIONS, WorkerConfig.RESULT_CACHE_BYTES,
+                new File(WorkerConfig.RESULT_CACHE_DIR), WorkerConfig.RESULT_CACHE_DISK_BYTES);
+    }
+
+    /**
+     * Key of the submission, the same for identical projects wherever they are.
+     */
+    public String key(JobRequest request) throws IOException {
+        return key(request, sources(new File(request.getProjectPath())));
+    }
+
+    /**
+     * Same, from the given hashes of the files under src/ (by path in the project),
+     * so a result is stored under the sources that were actually compiled.
+     */
+    public String key(JobRequest request, Map<String, String> sources) throws IOException {
+        File projectDir = new File(request.getProjectPath()).getAbsoluteFile();
+        JobLimits limits = request.limitsFor(JobLimits.forAction(request.getAction()));
+        MessageDigest digest = Hashing.sha256();
+        update(digest, request.getAction());
+        update(digest, String.valueOf(request.getJdk()));
+        update(digest, request.getJarLayout().name());
+        update(digest, System.getProperty("java.vm.version"));
+        update(digest, limits.getWallTimeMillis() + "/" + limits.getCpuTimeMillis() + "/" + limits.getHeapMb() + "/"
+                + limits.getOutputBytes());
+        for (Map.Entry<String, String> source : new TreeMap<>(sources).entrySet()) {
+            update(digest, source.getKey());
+            update(digest, source.getValue());
+        }
+        for (Path jar : files(new File(projectDir, "lib"))) {
+            if (jar.toString().endsWith(".jar")) {
+                update(digest, jar.getFileName().toString());
+                update(digest, libraries.sha256(jar.toFile()));
+            }
+        }
+        return Hashing.toHex(digest.digest());
+    }
+
+    /**
+     * Hashes of every file under src/, by path in the project.
+     */
+    public static Map<String, String> sources(File projectDir) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (Path file : files(new File(projectDir, "src"))) {
+            files.add(file.toFile());
+        }
+        return hashes(projectDir, files);
+    }
+
+    /**
+     * Hashes of the given files, by path in the project.
+     */
+    public static Map<String, String> hashes(File projectDir, List<File> files) throws IOException {
+        Path projectPath = projectDir.getAbsoluteFile().toPath();
+        Map<String, String> hashes = new TreeMap<>();
+        for (File file : files) {
+            hashes.put(projectPath.relativize(file.getAbsoluteFile().toPath()).toString(),
+                    Hashing.sha256(Files.readAllBytes(file.toPath())));
+        }
+        return hashes;
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static List<Path> files(File dir) throws IOException {
+        if (!dir.isDirectory()) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            return paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * The result stored under the key as computed for the given project, its jar
+     * written into it, or null when there is none.
+     */
+    public JobResult get(String key, File projectDir) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            entry = readEntry(key);
+            if (entry == null) {
+                return null;
+            }
+            remember(key, entry);
+        }
+        String json = new String(entry.json, StandardCharsets.UTF_8)
+                .replace(PROJECT_DIR + "/", escape(projectDir.getAbsolutePath()) + "/");
+        JsonNode node = MAPPER.readTree(json);
+        JobResult result = MAPPER.treeToValue(node.get("result"), JobResult.class).toBuilder()
+                .text(node.path("text").asText(null))
+                .cached(true)
+                .build();
+        if (entry.jar != null) {
+            write(new File(result.getArtifact()), entry.jar);
+        }
+        return result;
+    }
+
+    /**
+     * Whether the result of the action can be given to identical submissions.
+     */
+    public boolean isReusable(String action, JobResult result) {
+        switch (result.getStatus()) {
+            case COMPILATION_FAILED:
+                return true;
+            case LIMIT_EXCEEDED:
+            case ERROR:
+                return false;
+            default:
+                return actions.contains(action);
+        }
+    }
+
+    /**
+     * Whether jobs of the action need to keep the jar they built for {@link #put}.
+     */
+    public boolean keepsArtifacts(String action) {
+        return actions.contains(action);
+    }
+
+    /**
+     * Stores the result computed for the given project if it can be reused, with
+     * the jar it built as it was before being published into the project. A
+     * result whose jar was not kept is not stored.
+     */
+    public void put(String key, String action, File projectDir, JobResult result, byte[] jar) throws IOException {
+        if (!isReusable(action, result) || (result.getArtifact() != null && jar == null)) {
+            return;
+        }
+        ObjectNode node = MAPPER.createObjectNode();
+        node.set("result", MAPPER.valueToTree(result));
+        node.put("text", result.getText());
+        String json = MAPPER.writeValueAsString(node)
+                .replace(escape(projectDir.getAbsolutePath()) + "/", PROJECT_DIR + "/");
+        Entry entry = new Entry(json.getBytes(StandardCharsets.UTF_8), result.getArtifact() != null ? jar : null);
+        remember(key, entry);
+        writeEntry(key, entry);
+    }
+
+    private synchronized void remember(String key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            cachedBytes -= previous.bytes();
+        }
+        cachedBytes += entry.bytes();
+        while (cachedBytes > maxBytes && !entries.isEmpty()) {
+            Map.Entry<String, Entry> eldest = entries.entrySet().iterator().next();
+            cachedBytes -= eldest.getValue().bytes();
+            entries.remove(eldest.getKey());
+        }
+    }
+
+    private Entry readEntry(String key) throws IOException {
+        File json = new File(dir, key + ".json");
+        if (maxDiskBytes <= 0 || !json.isFile()) {
+            return null;
+        }
+        File jar = new File(dir, key + ".jar");
+        Entry entry = new Entry(Files.readAllBytes(json.toPath()),
+                jar.isFile() ? Files.readAllBytes(jar.toPath()) : null);
+        // Disk entries are evicted by age of last use
+        json.setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    private void writeEntry(String key, Entry entry) throws IOException {
+        if (maxDiskBytes <= 0) {
+            return;
+        }
+        Files.createDirectories(dir.toPath());
+        if (entry.jar != null) {
+            write(new File(dir, key + ".jar"), entry.jar);
+        }
+        // The json goes last, an entry without it is not found
+        write(new File(dir, key + ".json"), entry.json);
+        prune();
+    }
+
+    // A part file of its own, concurrent hits for the same project each move a complete file into place
+    private static void write(File file, byte[] bytes) throws IOException {
+        Path partFile = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), file.getName(),
+                ".part");
+        try {
+            Files.write(partFile, bytes);
+            Files.move(partFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partFile);
+        }
+    }
+
+    private synchronized void prune() {
+        File[] jsons = dir.listFiles((parent, name) -> name.endsWith(".json"));
+        if (jsons == null) {
+            return;
+        }
+        List<File> byAge = new ArrayList<>(Arrays.asList(jsons));
+        byAge.sort(Comparator.comparingLong(File::lastModified));
+        long diskBytes = 0;
+        for (File json : byAge) {
+            diskBytes += json.length() + jarOf(json).length();
+        }
+        for (int i = 0; diskBytes > maxDiskBytes && i < byAge.size() - 1; i++) {
+            File json = byAge.get(i);
+            diskBytes -= json.length() + jarOf(json).length();
+            json.delete();
+            jarOf(json).delete();
+        }
+    }
+
+    private static File jarOf(File json) {
+        String name = json.getName();
+        return new File(json.getParentFile(), name.substring(0, name.length() - ".json".length()) + ".jar");
+    }
+
+    // The path as it appears inside JSON strings
+    private static String escape(String path) throws IOException {
+        String quoted = MAPPER.writeValueAsString(path);
+        return quoted.substring(1, quoted.length() - 1);
+    }
+
+    private static final class Entry {
+        private final byte[] json;
+        private final byte[] jar;
+
+        Entry(byte[] json, byte[] jar) {
+            this.json = json;
+            this.jar = jar;
+        }
+
+        long bytes() {
+            return json.length + (jar == null ? 0 : jar.length);
+        }
+    }
+}
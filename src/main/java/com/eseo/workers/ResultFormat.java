@@ -0,0 +1,63 @@
+package com.eseo.workers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+
+/**
+ * How the final result of a job is encoded. "text" is the historical message,
+ * "json" and "smile" (binary JSON) carry the whole {@link JobResult}.
+ */
+public enum ResultFormat {
+    TEXT("text/plain; charset=utf-8", null),
+    JSON("application/json", new ObjectMapper().writerFor(JobResult.class)),
+    SMILE("application/x-jackson-smile", new SmileMapper().writerFor(JobResult.class));
+
+    private final String contentType;
+    // Writers are immutable and thread safe, built once for every job
+    private final ObjectWriter writer;
+
+    ResultFormat(String contentType, ObjectWriter writer) {
+        this.contentType = contentType;
+        this.writer = writer;
+    }
+
+    /**
+     * The format a request asked for, the configured default when it did not ask or is not known.
+     */
+    public static ResultFormat forName(String name) {
+        if (name != null) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                System.err.println(" [!] Unknown result format " + name);
+            }
+        }
+        return valueOf(WorkerConfig.RESULT_FORMAT.toUpperCase(Locale.ROOT));
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public byte[] encode(JobResult result) throws IOException {
+        if (writer == null) {
+            return result.getText().getBytes(StandardCharsets.UTF_8);
+        }
+        return writer.writeValueAsBytes(result);
+    }
+
+    static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed, 8192)) {
+            out.write(body);
+        }
+        return compressed.toByteArray();
+    }
+}
@@ -0,0 +1,183 @@
+package com.eseo.workers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownSignalException;
+
+/**
+ * Publishes the results of every job on one channel of its own. The results
+ * exchange is declared once, and with publisher confirms each result is tracked
+ * until the broker confirmed it: the confirms of concurrent jobs come back in
+ * batches, and results the broker rejected or did not confirm in time are
+ * published again. So are those still unconfirmed when the channel closes: a
+ * recovered channel numbers its publishes from 1 again, and the confirms of the
+ * old one never come.
+ */
+public class ResultPublisher implements ResultSink {
+    static final String RESULT_EXCHANGE_NAME = "results_exchange";
+
+    private final Channel channel;
+    private final boolean confirms;
+    private final long confirmTimeoutMillis;
+    private final int maxAttempts;
+    // By publish sequence number, until the broker confirms them
+    private final ConcurrentNavigableMap<Long, PendingResult> unconfirmed = new ConcurrentSkipListMap<>();
+    // Published and not confirmed yet, or waiting to be published again
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "result-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ResultPublisher(Channel channel, boolean confirms, long confirmTimeoutMillis, int maxAttempts)
+            throws IOException {
+        this.channel = channel;
+        this.confirms = confirms;
+        this.confirmTimeoutMillis = confirmTimeoutMillis;
+        this.maxAttempts = maxAttempts;
+        channel.exchangeDeclare(RESULT_EXCHANGE_NAME, "direct", true);
+        if (confirms) {
+            channel.confirmSelect();
+            channel.addConfirmListener((tag, multiple) -> confirmed(tag, multiple, true),
+                    (tag, multiple) -> confirmed(tag, multiple, false));
+            channel.addShutdownListener(this::channelClosed);
+            long interval = Math.max(confirmTimeoutMillis / 4, 10);
+            retries.scheduleWithFixedDelay(this::retryTimedOut, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static ResultPublisher fromConfig(Channel channel) throws IOException {
+        return new ResultPublisher(channel, WorkerConfig.RESULT_CONFIRMS, WorkerConfig.RESULT_CONFIRM_TIMEOUT_MS,
+                WorkerConfig.RESULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * Publishes a result under the given routing key, the future completes once the
+     * broker confirmed it, or fails when it could not be published.
+     */
+    @Override
+    public CompletableFuture<Void> publish(String routingKey, AMQP.BasicProperties properties, byte[] body) {
+        PendingResult result = new PendingResult(routingKey, properties, body);
+        inFlight.incrementAndGet();
+        result.future.whenComplete((ignored, e) -> inFlight.decrementAndGet());
+        send(result);
+        return result.future;
+    }
+
+    private void send(PendingResult result) {
+        if (result.future.isDone()) {
+            return; // Given up by the stream it belongs to
+        }
+        result.attempts++;
+        result.sentAt = System.nanoTime();
+        long seqNo = -1;
+        try {
+            synchronized (channel) {
+                if (confirms) {
+                    seqNo = channel.getNextPublishSeqNo();
+                    unconfirmed.put(seqNo, result);
+                }
+                channel.basicPublish(RESULT_EXCHANGE_NAME, result.routingKey, result.properties, result.body);
+            }
+            if (!confirms) {
+                result.future.complete(null);
+            }
+        } catch (IOException | ShutdownSignalException e) {
+            if (seqNo != -1) {
+                unconfirmed.remove(seqNo);
+            }
+            retryLater(result, e);
+        }
+    }
+
+    // The broker confirms one result, or every result up to the tag when multiple is set
+    private void confirmed(long tag, boolean multiple, boolean ack) {
+        List<PendingResult> results = new ArrayList<>();
+        if (multiple) {
+            Map<Long, PendingResult> confirmedResults = unconfirmed.headMap(tag, true);
+            results.addAll(confirmedResults.values());
+            confirmedResults.clear();
+        } else {
+            PendingResult result = unconfirmed.remove(tag);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        for (PendingResult result : results) {
+            if (ack) {
+                result.future.complete(null);
+            } else {
+                retryLater(result, new IOException("rejected by the broker"));
+            }
+        }
+    }
+
+    // Before a recovered channel reuses their sequence numbers
+    private void channelClosed(ShutdownSignalException cause) {
+        for (Map.Entry<Long, PendingResult> entry : unconfirmed.entrySet()) {
+            if (unconfirmed.remove(entry.getKey(), entry.getValue())) {
+                retryLater(entry.getValue(), cause);
+            }
+        }
+    }
+
+    // Confirms the broker never sent, those results are sent again
+    private void retryTimedOut() {
+        long now = System.nanoTime();
+        for (Map.Entry<Long, PendingResult> entry : unconfirmed.entrySet()) {
+            PendingResult result = entry.getValue();
+            if (TimeUnit.NANOSECONDS.toMillis(now - result.sentAt) > confirmTimeoutMillis
+                    && unconfirmed.remove(entry.getKey(), result)) {
+                retryLater(result, new IOException("not confirmed within " + confirmTimeoutMillis + " ms"));
+            }
+        }
+    }
+
+    private void retryLater(PendingResult result, Exception cause) {
+        if (result.attempts >= maxAttempts) {
+            result.future.completeExceptionally(new IOException("Result for " + result.routingKey
+                    + " not published after " + result.attempts + " attempts: " + cause.getMessage(), cause));
+            return;
+        }
+        System.err.println(" [!] Publishing result for " + result.routingKey + " again: " + cause.getMessage());
+        retries.schedule(() -> send(result), 100L * result.attempts, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for the results not confirmed yet, at most the given time.
+     */
+    public void awaitConfirms(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (inFlight.get() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static final class PendingResult {
+        private final String routingKey;
+        private final AMQP.BasicProperties properties;
+        private final byte[] body;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private volatile int attempts;
+        private volatile long sentAt;
+
+        PendingResult(String routingKey, AMQP.BasicProperties properties, byte[] body) {
+            this.routingKey = routingKey;
+            this.properties = properties;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.eseo.workers;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.rabbitmq.client.AMQP;
+
+/**
+ * Where the messages of a {@link ResultStream} go: the results exchange, or
+ * the HTTP response of a {@link CompileDaemon} request.
+ */
+public interface ResultSink {
+    /**
+     * Sends one message of the job, the future completes once it is delivered
+     * or fails when it could not be. A message whose future the caller completed
+     * or cancelled is not sent again.
+     */
+    CompletableFuture<Void> publish(String routingKey, AMQP.BasicProperties properties, byte[] body);
+}
@@ -0,0 +1,347 @@
+package com.eseo.workers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.eseo.workers.JobWorker.TestResult;
+import com.rabbitmq.client.AMQP;
+
+/**
+ * Results of one job, published on the results exchange under its request id
+ * (or sent to any other {@link ResultSink}).
+ * By default only the final result is published, as a plain message. When the
+ * request asked for streaming, program output, compiler diagnostics and test
+ * results are published while the job runs, batched by size and time, and the
+ * final result comes last. Streamed program output stops at the same size as
+ * the output kept for the result. Every streamed message carries the headers "seq"
+ * (0, 1, 2...), "type" (stdout, stderr, diagnostic, test or result) and "final".
+ * The final result is encoded in the {@link ResultFormat} of the request. Json
+ * and smile results are gzipped (content encoding "gzip") once they reach
+ * WORKER_RESULT_GZIP_BYTES; text results never are, their consumers predate it.
+ * Streamed messages are published in seq order; one the broker did not take is
+ * published again, unless the final result already went out.
+ */
+public class ResultStream implements RunListener, AutoCloseable {
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "result-stream-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ResultSink publisher;
+    private final String requestId;
+    private final boolean streaming;
+    private final ResultFormat format;
+    private final int batchBytes;
+    private final long maxOutputBytes;
+    private final int gzipBytes;
+    private final List<CompileDiagnostic> diagnostics = new ArrayList<>();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final ScheduledFuture<?> flushTask;
+    // Batches taken out under the lock, published outside of it
+    private final Queue<Message> ready = new ArrayDeque<>();
+    private final Object publishing = new Object();
+    // Partial messages not confirmed yet, guarded by publishing
+    private final List<CompletableFuture<Void>> partials = new ArrayList<>();
+    private Metrics.Stage publishStage;
+    private String pendingType;
+    private long seq;
+    private long streamedOutputBytes;
+    private CompletableFuture<Void> published;
+    private JobResult result;
+    // What the result is cached under: hashes of the compiled sources (null once one changed while
+    // compiled), and the jar as it was built
+    private Map<String, String> compiledSources = new TreeMap<>();
+    private byte[] artifactBytes;
+
+    public ResultStream(ResultSink publisher, String requestId, boolean streaming, ResultFormat format) {
+        this(publisher, requestId, streaming, format, WorkerConfig.STREAM_BATCH_BYTES, WorkerConfig.STREAM_BATCH_MS,
+                WorkerConfig.OUTPUT_MAX_BYTES, WorkerConfig.RESULT_GZIP_BYTES);
+    }
+
+    ResultStream(ResultSink publisher, String requestId, boolean streaming, ResultFormat format,
+            int batchBytes, long batchMillis, long maxOutputBytes, int gzipBytes) {
+        this.publisher = publisher;
+        this.requestId = requestId;
+        this.streaming = streaming;
+        this.format = format;
+        this.batchBytes = batchBytes;
+        this.maxOutputBytes = maxOutputBytes;
+        this.gzipBytes = gzipBytes;
+        // Output written slowly is still published every batchMillis
+        this.flushTask = streaming
+                ? FLUSHER.scheduleWithFixedDelay(this::flush, batchMillis, batchMillis, TimeUnit.MILLISECONDS)
+                : null;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    @Override
+    public void output(byte[] bytes, int offset, int length) {
+        appendOutput("stdout", bytes, offset, length);
+    }
+
+    @Override
+    public void error(byte[] bytes, int offset, int length) {
+        appendOutput("stderr", bytes, offset, length);
+    }
+
+    private void appendOutput(String type, byte[] bytes, int offset, int length) {
+        synchronized (this) {
+            long allowed = maxOutputBytes - streamedOutputBytes;
+            if (allowed <= 0) {
+                return;
+            }
+            int kept = (int) Math.min(length, allowed);
+            streamedOutputBytes += kept;
+            batch(type, bytes, offset, kept);
+            if (streamedOutputBytes == maxOutputBytes) {
+                byte[] truncated = (System.lineSeparator() + "... [output truncated] ..." + System.lineSeparator())
+                        .getBytes(StandardCharsets.UTF_8);
+                batch(type, truncated, 0, truncated.length);
+            }
+        }
+        publishReady();
+    }
+
+    @Override
+    public void testFinished(TestResult testResult) {
+        append("test", testResult + "\n");
+    }
+
+    public void diagnostics(List<CompileDiagnostic> diagnostics) {
+        synchronized (this) {
+            this.diagnostics.addAll(diagnostics);
+        }
+        for (CompileDiagnostic diagnostic : diagnostics) {
+            append("diagnostic", diagnostic + "\n");
+        }
+    }
+
+    /**
+     * Every compiler message of the job so far.
+     */
+    public synchronized List<CompileDiagnostic> getDiagnostics() {
+        return new ArrayList<>(diagnostics);
+    }
+
+    private void append(String type, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            batch(type, bytes, 0, bytes.length);
+        }
+        publishReady();
+    }
+
+    // Called holding the lock, full batches are only made ready to publish
+    private void batch(String type, byte[] bytes, int offset, int length) {
+        if (!streaming || published != null || length == 0) {
+            return;
+        }
+        // One message holds one type, a change of type publishes what came before
+        if (pendingType != null && !pendingType.equals(type)) {
+            takeBatch();
+        }
+        pendingType = type;
+        pending.write(bytes, offset, length);
+        if (pending.size() >= batchBytes) {
+            takeBatch();
+        }
+    }
+
+    private void flush() {
+        synchronized (this) {
+            takeBatch();
+        }
+        publishReady();
+    }
+
+    private void takeBatch() {
+        if (pending.size() == 0) {
+            return;
+        }
+        ready.add(message(pendingType, pending.toByteArray(), false, ResultFormat.TEXT.getContentType(), null));
+        pending.reset();
+        pendingType = null;
+    }
+
+    /**
+     * Publishes the final result of the job, after anything still batched.
+     */
+    public void finish(JobResult result) {
+        synchronized (this) {
+            if (published != null) {
+                return;
+            }
+            publishStage = Metrics.start("publish");
+            this.result = result;
+            ResultFormat resultFormat = format;
+            byte[] body;
+            try {
+                body = resultFormat.encode(result);
+            } catch (IOException e) {
+                System.err.println(" [!] Could not encode result for " + requestId + " as " + format + ": "
+                        + e.getMessage());
+                resultFormat = ResultFormat.TEXT;
+                body = result.getText().getBytes(StandardCharsets.UTF_8);
+            }
+            String contentEncoding = null;
+            if (gzipBytes > 0 && body.length >= gzipBytes && resultFormat != ResultFormat.TEXT) {
+                try {
+                    body = ResultFormat.gzip(body);
+                    contentEncoding = "gzip";
+                } catch (IOException e) {
+                    System.err.println(" [!] Could not compress result for " + requestId + ": " + e.getMessage());
+                }
+            }
+            takeBatch();
+            ready.add(message("result", body, true, resultFormat.getContentType(), contentEncoding));
+            published = new CompletableFuture<>();
+        }
+        publishReady();
+        close();
+        System.out.println(" [x] Sent result with routing key: " + requestId);
+    }
+
+    /**
+     * The final result, null until the job finished.
+     */
+    public synchronized JobResult getResult() {
+        return result;
+    }
+
+    /**
+     * Hashes of sources the job compiled, by path in the project; null when one of
+     * them changed while it was compiled.
+     */
+    public synchronized void compiled(Map<String, String> sources) {
+        if (sources == null) {
+            compiledSources = null;
+        } else if (compiledSources != null) {
+            compiledSources.putAll(sources);
+        }
+    }
+
+    public synchronized Map<String, String> getCompiledSources() {
+        return compiledSources == null ? null : new TreeMap<>(compiledSources);
+    }
+
+    /**
+     * The jar the job built, kept before it was published into the project.
+     */
+    public synchronized void artifact(byte[] jar) {
+        artifactBytes = jar;
+    }
+
+    public synchronized byte[] getArtifact() {
+        return artifactBytes;
+    }
+
+    /**
+     * Completes once the broker confirmed the final result, right away when the job sent none.
+     */
+    public synchronized CompletableFuture<Void> published() {
+        return published != null ? published : CompletableFuture.completedFuture(null);
+    }
+
+    private Message message(String type, byte[] body, boolean last, String contentType, String contentEncoding) {
+        AMQP.BasicProperties.Builder properties = new AMQP.BasicProperties.Builder()
+                .contentType(contentType)
+                .contentEncoding(contentEncoding);
+        if (streaming) {
+            Map<String, Object> headers = new HashMap<>();
+            headers.put("seq", seq++);
+            headers.put("type", type);
+            headers.put("final", last);
+            properties.headers(headers);
+        }
+        return new Message(properties.build(), body, last);
+    }
+
+    // Messages go out in seq order, outside the lock of the stream: a slow broker never blocks the
+    // program output of the job, only the threads publishing after it
+    private void publishReady() {
+        synchronized (publishing) {
+            while (true) {
+                Message message;
+                synchronized (this) {
+                    message = ready.poll();
+                }
+                if (message == null) {
+                    return;
+                }
+                CompletableFuture<Void> sent = publisher.publish(requestId, message.properties, message.body);
+                if (message.last) {
+                    // Partial messages sent again after the final one would come too late for the client
+                    for (CompletableFuture<Void> partial : partials) {
+                        partial.cancel(false);
+                    }
+                    partials.clear();
+                    CompletableFuture<Void> result;
+                    synchronized (this) {
+                        result = published;
+                    }
+                    sent.whenComplete((ignored, e) -> {
+                        publishStage.stop();
+                        if (e != null) {
+                            result.completeExceptionally(e);
+                        } else {
+                            result.complete(null);
+                        }
+                    });
+                } else {
+                    partials.add(sent);
+                    sent.whenComplete((ignored, e) -> {
+                        if (e != null && !(e instanceof CancellationException)) {
+                            System.err.println(" [!] Could not stream result for " + requestId + ": "
+                                    + e.getMessage());
+                        }
+                    });
+                    partials.removeIf(CompletableFuture::isDone);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the periodic publishing, what is still batched is dropped when the job did not finish.
+     */
+    @Override
+    public void close() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+    }
+
+    private static final class Message {
+        private final AMQP.BasicProperties properties;
+        private final byte[] body;
+        private final boolean last;
+
+        Message(AMQP.BasicProperties properties, byte[] body, boolean last) {
+            this.properties = properties;
+            this.body = body;
+            this.last = last;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.eseo.workers;
+
+import com.eseo.workers.JobWorker.TestResult;
+
+/**
+ * Told about what a program or a test run produces while it is still running.
+ */
+public interface RunListener {
+    RunListener NONE = new RunListener() {
+    };
+
+    default void output(byte[] bytes, int offset, int length) {
+    }
+
+    default void error(byte[] bytes, int offset, int length) {
+    }
+
+    default void testFinished(TestResult testResult) {
+    }
+}
@@ -0,0 +1,60 @@
+package com.eseo.workers;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.eseo.workers.JobWorker.TestResult;
+
+/**
+ * Exit code and output of a program run by the worker, and the results of the
+ * tests when it ran tests.
+ */
+public class RunOutcome {
+    private final int exitCode;
+    private final String output;
+    private final String error;
+    private final long runTime;
+    private final List<TestResult> testResults;
+    private final JobLimits.Limit exceededLimit;
+
+    public RunOutcome(int exitCode, String output, String error, long runTime, JobLimits.Limit exceededLimit) {
+        this(exitCode, output, error, runTime, Collections.emptyList(), exceededLimit);
+    }
+
+    public RunOutcome(int exitCode, String output, String error, long runTime, List<TestResult> testResults,
+            JobLimits.Limit exceededLimit) {
+        this.exitCode = exitCode;
+        this.output = output;
+        this.error = error;
+        this.runTime = runTime;
+        this.testResults = testResults;
+        this.exceededLimit = exceededLimit;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public long getRunTime() {
+        return runTime;
+    }
+
+    public List<TestResult> getTestResults() {
+        return testResults;
+    }
+
+    /**
+     * The limit the program was stopped for, null when it ended by itself.
+     */
+    public JobLimits.Limit getExceededLimit() {
+        return exceededLimit;
+    }
+}
@@ -0,0 +1,416 @@
+package com.eseo.workers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.function.ToIntFunction;
+
+/**
+ * Entry point of the runner JVMs kept warm by {@link RunnerPool}. Each request
+ * received on stdin holds the lib jars and the compiled classes of a project,
+ * with either a main class to run or test classes to execute. The classes are
+ * loaded in a fresh class loader, and everything the program prints is sent
+ * back as frames, along with the result of every test.
+ *
+ * Requests and frames go through a loopback socket opened by the pool, the
+ * runner proves it is the JVM the pool started with the secret it was given on
+ * stdin. The program cannot forge frames on its stdout and stderr, whatever it
+ * writes there is plain text of the run.
+ */
+public class RunnerMain {
+    static final int REQUEST_RUN = 1;
+    static final int REQUEST_TEST = 2;
+
+    static final int FRAME_STDOUT = 1;
+    static final int FRAME_STDERR = 2;
+    static final int FRAME_EXIT = 3;
+    static final int FRAME_TEST = 4;
+
+    // Longest chunk, string or class sent either way, a longer one means a corrupted stream
+    static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
+    private static DataOutputStream protocol;
+    // Set when a program changed the JVM in a way the runner could not undo
+    private static boolean dirty;
+
+    public static void main(String[] args) throws IOException {
+        double memoryThreshold = Double.parseDouble(args[0]);
+        int port = Integer.parseInt(args[1]);
+        String secret = new DataInputStream(new FileInputStream(FileDescriptor.in)).readUTF();
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        DataInputStream requests = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        protocol = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+        protocol.writeUTF(secret);
+        protocol.flush();
+
+        // The program must neither read our requests nor write into the protocol stream
+        System.setIn(new ByteArrayInputStream(new byte[0]));
+        System.setOut(new PrintStream(new BufferedOutputStream(new FrameOutputStream(FRAME_STDOUT), 8192), true));
+        System.setErr(new PrintStream(new BufferedOutputStream(new FrameOutputStream(FRAME_STDERR), 8192), true));
+
+        while (true) {
+            int request;
+            try {
+                request = requests.readInt();
+            } catch (EOFException e) {
+                return; // The worker closed the socket, the pool no longer needs us
+            }
+            Set<Thread> threadsBefore = liveThreads();
+            int exitCode;
+            if (request == REQUEST_RUN) {
+                exitCode = run(RunRequest.read(requests));
+            } else if (request == REQUEST_TEST) {
+                exitCode = JUnitRunner.execute(TestRequest.read(requests));
+            } else {
+                throw new IOException("Unknown request " + request);
+            }
+            boolean recycle = dirty || hasLeakedThreads(threadsBefore) || usedMemoryRatio() > memoryThreshold;
+            synchronized (protocol) {
+                protocol.writeByte(FRAME_EXIT);
+                protocol.writeInt(exitCode);
+                protocol.writeBoolean(recycle);
+                protocol.flush();
+            }
+        }
+    }
+
+    private static int run(RunRequest request) {
+        // Programs only see their own libraries and the JDK, not the worker classes
+        return runInProgramThread(request.libraries, ClassLoader.getPlatformClassLoader(), request.classes,
+                classes -> {
+                    try {
+                        Class<?> mainClass = Class.forName(request.mainClass, false, classes);
+                        Method mainMethod = mainClass.getMethod("main", String[].class);
+                        if (!Modifier.isStatic(mainMethod.getModifiers())) {
+                            throw new NoSuchMethodException("main is not static in " + request.mainClass);
+                        }
+                        mainMethod.setAccessible(true);
+                        mainMethod.invoke(null, (Object) new String[0]);
+                        return 0;
+                    } catch (InvocationTargetException e) {
+                        System.err.print("Exception in thread \"main\" ");
+                        e.getCause().printStackTrace();
+                        return 1;
+                    } catch (ReflectiveOperationException | LinkageError e) {
+                        System.err.println("Error: Could not find or load main class " + request.mainClass);
+                        System.err.println("Caused by: " + e);
+                        return 1;
+                    }
+                });
+    }
+
+    /**
+     * Loads the classes on top of the libraries and the given parent, and calls the
+     * program from a "main" thread. Returns once every non daemon thread it started ended.
+     * The standard streams, system properties, default locale and time zone the program
+     * changed are put back for the next one.
+     */
+    static int runInProgramThread(String[] libraries, ClassLoader parent, Map<String, byte[]> compiledClasses,
+            ToIntFunction<ClassLoader> program) {
+        Properties properties = (Properties) System.getProperties().clone();
+        ClassLoader previousLoader = Thread.currentThread().getContextClassLoader();
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        InputStream in = System.in;
+        Locale locale = Locale.getDefault();
+        Locale displayLocale = Locale.getDefault(Locale.Category.DISPLAY);
+        Locale formatLocale = Locale.getDefault(Locale.Category.FORMAT);
+        TimeZone timeZone = TimeZone.getDefault();
+        ThreadGroup group = new ThreadGroup("program");
+        int[] exitCode = new int[1];
+        try (URLClassLoader libraryLoader = new URLClassLoader(libraryUrls(libraries), parent);
+                MemoryClassLoader classes = new MemoryClassLoader(compiledClasses, libraryLoader)) {
+            Thread main = new Thread(group, () -> exitCode[0] = program.applyAsInt(classes), "main");
+            main.setContextClassLoader(classes);
+            main.start();
+            main.join();
+            // Like the java launcher, wait for the threads the program left running
+            for (Thread thread : threadsOf(group)) {
+                if (!thread.isDaemon()) {
+                    thread.join();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e);
+            exitCode[0] = 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exitCode[0] = 1;
+        } finally {
+            System.out.flush();
+            System.err.flush();
+            try {
+                System.setOut(out);
+                System.setErr(err);
+                System.setIn(in);
+                System.setProperties(properties);
+                Locale.setDefault(locale);
+                Locale.setDefault(Locale.Category.DISPLAY, displayLocale);
+                Locale.setDefault(Locale.Category.FORMAT, formatLocale);
+                TimeZone.setDefault(timeZone);
+                out.flush();
+                err.flush();
+            } catch (RuntimeException e) {
+                // A security manager installed by the program, the next one gets a new runner
+                dirty = true;
+            }
+            Thread.currentThread().setContextClassLoader(previousLoader);
+        }
+        return exitCode[0];
+    }
+
+    static void sendTestResult(String testName, String status, long duration, String data, String stackTrace)
+            throws IOException {
+        System.out.flush();
+        System.err.flush();
+        synchronized (protocol) {
+            protocol.writeByte(FRAME_TEST);
+            writeString(protocol, testName);
+            writeString(protocol, status);
+            protocol.writeLong(duration);
+            writeString(protocol, data);
+            writeString(protocol, stackTrace);
+            protocol.flush();
+        }
+    }
+
+    private static Thread[] threadsOf(ThreadGroup group) {
+        Thread[] threads = new Thread[group.activeCount() + 16];
+        int count = group.enumerate(threads, true);
+        Thread[] result = new Thread[count];
+        System.arraycopy(threads, 0, result, 0, count);
+        return result;
+    }
+
+    private static Set<Thread> liveThreads() {
+        ThreadGroup root = Thread.currentThread().getThreadGroup();
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        return new HashSet<>(Arrays.asList(threadsOf(root)));
+    }
+
+    // Any thread started during the run and still alive: daemons, timers, pools, whatever their loader or group
+    private static boolean hasLeakedThreads(Set<Thread> threadsBefore) {
+        for (Thread thread : liveThreads()) {
+            if (thread.isAlive() && !threadsBefore.contains(thread)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double usedMemoryRatio() {
+        Runtime runtime = Runtime.getRuntime();
+        return (double) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory();
+    }
+
+    static final class RunRequest {
+        final String mainClass;
+        final String[] libraries;
+        final Map<String, byte[]> classes;
+
+        RunRequest(String mainClass, String[] libraries, Map<String, byte[]> classes) {
+            this.mainClass = mainClass;
+            this.libraries = libraries;
+            this.classes = classes;
+        }
+
+        static RunRequest read(DataInputStream in) throws IOException {
+            String mainClass = in.readUTF();
+            return new RunRequest(mainClass, readStrings(in), readClasses(in));
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(REQUEST_RUN);
+            out.writeUTF(mainClass);
+            writeStrings(out, libraries);
+            writeClasses(out, classes);
+            out.flush();
+        }
+    }
+
+    static final class TestRequest {
+        final String[] testClasses;
+        final String[] libraries;
+        final Map<String, byte[]> classes;
+
+        TestRequest(String[] testClasses, String[] libraries, Map<String, byte[]> classes) {
+            this.testClasses = testClasses;
+            this.libraries = libraries;
+            this.classes = classes;
+        }
+
+        static TestRequest read(DataInputStream in) throws IOException {
+            String[] testClasses = readStrings(in);
+            return new TestRequest(testClasses, readStrings(in), readClasses(in));
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(REQUEST_TEST);
+            writeStrings(out, testClasses);
+            writeStrings(out, libraries);
+            writeClasses(out, classes);
+            out.flush();
+        }
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] strings = new String[readLength(in)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+        return strings;
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static Map<String, byte[]> readClasses(DataInputStream in) throws IOException {
+        int classCount = readLength(in);
+        Map<String, byte[]> classes = new HashMap<>();
+        for (int i = 0; i < classCount; i++) {
+            String name = in.readUTF();
+            byte[] bytecode = new byte[readLength(in)];
+            in.readFully(bytecode);
+            classes.put(name, bytecode);
+        }
+        return classes;
+    }
+
+    private static void writeClasses(DataOutputStream out, Map<String, byte[]> classes) throws IOException {
+        out.writeInt(classes.size());
+        for (Map.Entry<String, byte[]> compiledClass : classes.entrySet()) {
+            out.writeUTF(compiledClass.getKey());
+            out.writeInt(compiledClass.getValue().length);
+            out.write(compiledClass.getValue());
+        }
+    }
+
+    // Unlike writeUTF, not limited to 64KB, stack traces can be longer than that
+    static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(bytes.length, MAX_FRAME_BYTES);
+            out.writeInt(length);
+            out.write(bytes, 0, length);
+        }
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[checkLength(length)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a length or a count, checked before anything is allocated for it.
+     */
+    static int readLength(DataInputStream in) throws IOException {
+        return checkLength(in.readInt());
+    }
+
+    private static int checkLength(int length) throws ProtocolException {
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new ProtocolException("Bad frame length " + length);
+        }
+        return length;
+    }
+
+    private static URL[] libraryUrls(String[] libraries) throws IOException {
+        URL[] urls = new URL[libraries.length];
+        for (int i = 0; i < libraries.length; i++) {
+            urls[i] = new File(libraries[i]).toURI().toURL();
+        }
+        return urls;
+    }
+
+    static final class MemoryClassLoader extends ClassLoader implements AutoCloseable {
+        private final Map<String, byte[]> classes;
+
+        MemoryClassLoader(Map<String, byte[]> classes, ClassLoader parent) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytecode = classes.get(name);
+            if (bytecode == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+
+        @Override
+        public void close() {
+            classes.clear();
+        }
+    }
+
+    private static final class FrameOutputStream extends OutputStream {
+        private final int type;
+
+        FrameOutputStream(int type) {
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            synchronized (protocol) {
+                while (length > 0) {
+                    int chunk = Math.min(length, MAX_FRAME_BYTES);
+                    protocol.writeByte(type);
+                    protocol.writeInt(chunk);
+                    protocol.write(bytes, offset, chunk);
+                    offset += chunk;
+                    length -= chunk;
+                }
+                protocol.flush();
+            }
+        }
+    }
+}
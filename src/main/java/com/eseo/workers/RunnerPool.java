@@ -0,0 +1,500 @@
+package com.eseo.workers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.eseo.workers.JobWorker.TestResult;
+
+/**
+ * Runner JVMs started ahead of time so the run and junit actions do not pay for
+ * a JVM startup. A runner is replaced after a given number of runs, when its heap
+ * stays too full, when the program left threads behind, or when it died.
+ */
+public class RunnerPool {
+    private static final long RUNNER_START_TIMEOUT_MILLIS = 60_000;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int size;
+    private final int maxRuns;
+    private final List<String> jvmOptions;
+    private final double memoryThreshold;
+    private final ClassDataArchives archives;
+    private final BlockingQueue<Runner> idle = new LinkedBlockingQueue<>();
+    // One permit per runner, running or idle
+    private final Semaphore permits;
+    private final AtomicInteger runnerIds = new AtomicInteger();
+    // Shards wait for a runner like jobs do, a thread each is enough
+    private final ExecutorService shardExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "runner-shard");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RunnerPool(int size, int maxRuns, List<String> jvmOptions, double memoryThreshold,
+            ClassDataArchives archives) {
+        this.size = size;
+        this.maxRuns = maxRuns;
+        this.jvmOptions = jvmOptions;
+        this.memoryThreshold = memoryThreshold;
+        this.permits = new Semaphore(size);
+        this.archives = archives;
+    }
+
+    public static RunnerPool fromConfig(ClassDataArchives archives) {
+        List<String> jvmOptions = new ArrayList<>();
+        jvmOptions.add("-Xmx" + WorkerConfig.RUNNER_HEAP_MB + "m");
+        jvmOptions.add("-XX:+UseSerialGC");
+        jvmOptions.add("-XX:TieredStopAtLevel=1");
+        return new RunnerPool(WorkerConfig.RUNNER_POOL_SIZE, WorkerConfig.RUNNER_MAX_RUNS, jvmOptions,
+                WorkerConfig.RUNNER_MEMORY_THRESHOLD, archives);
+    }
+
+    /**
+     * Starts every runner in the background so the first jobs find them ready.
+     */
+    public void prestart() {
+        Thread starter = new Thread(() -> {
+            for (int i = 0; i < size; i++) {
+                try {
+                    offer(startRunner());
+                } catch (IOException e) {
+                    System.err.println(" [!] Could not start runner JVM: " + e.getMessage());
+                    return;
+                }
+            }
+        }, "runner-prestart");
+        starter.setDaemon(true);
+        starter.start();
+    }
+
+    /**
+     * Runs the main class of the given classes in a warm runner JVM, its output is
+     * given to the listener as it is printed.
+     */
+    public RunOutcome run(String mainClass, List<File> libraries, Map<String, byte[]> classes, JobLimits limits,
+            RunListener listener) throws IOException, InterruptedException {
+        RunnerMain.RunRequest request = new RunnerMain.RunRequest(mainClass, paths(libraries), classes);
+        return execute(request::write, limits, listener, null);
+    }
+
+    /**
+     * Runs the given test classes in a warm runner JVM, each test result is given
+     * to the listener as soon as the test finished.
+     */
+    public RunOutcome runTests(List<String> testClasses, List<File> libraries, Map<String, byte[]> classes,
+            JobLimits limits, RunListener listener) throws IOException, InterruptedException {
+        return runTests(testClasses, libraries, classes, limits, listener, null);
+    }
+
+    private RunOutcome runTests(List<String> testClasses, List<File> libraries, Map<String, byte[]> classes,
+            JobLimits limits, RunListener listener, Shards shards) throws IOException, InterruptedException {
+        RunnerMain.TestRequest request = new RunnerMain.TestRequest(testClasses.toArray(new String[0]),
+                paths(libraries), classes);
+        return execute(request::write, limits, listener, shards);
+    }
+
+    /**
+     * Runs every shard of test classes in a runner JVM of its own at the same time,
+     * and merges their outcomes in the order of the shards.
+     */
+    public RunOutcome runTestShards(List<List<String>> shards, List<File> libraries, Map<String, byte[]> classes,
+            JobLimits limits, RunListener listener) throws IOException, InterruptedException {
+        if (shards.size() == 1) {
+            return runTests(shards.get(0), libraries, classes, limits, listener);
+        }
+        Shards running = new Shards();
+        List<Future<RunOutcome>> outcomes = new ArrayList<>();
+        for (List<String> shard : shards) {
+            outcomes.add(shardExecutor.submit(() -> runTests(shard, libraries, classes, limits, listener, running)));
+        }
+        int exitCode = 0;
+        StringBuilder output = new StringBuilder();
+        StringBuilder error = new StringBuilder();
+        long runTime = 0;
+        List<TestResult> testResults = new ArrayList<>();
+        JobLimits.Limit exceededLimit = null;
+        try {
+            for (Future<RunOutcome> future : outcomes) {
+                RunOutcome outcome = future.get();
+                if (exitCode == 0) {
+                    exitCode = outcome.getExitCode();
+                }
+                output.append(outcome.getOutput());
+                error.append(outcome.getError());
+                runTime = Math.max(runTime, outcome.getRunTime());
+                testResults.addAll(outcome.getTestResults());
+                if (exceededLimit == null) {
+                    exceededLimit = outcome.getExceededLimit();
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Test shard failed", e.getCause());
+        } finally {
+            // Shards blocked on the pipe of their runner do not see the interrupt, their runner is killed
+            running.cancel();
+            for (Future<RunOutcome> future : outcomes) {
+                future.cancel(true);
+            }
+        }
+        return new RunOutcome(exitCode, output.toString(), error.toString(), runTime, testResults, exceededLimit);
+    }
+
+    private static String[] paths(List<File> libraries) {
+        String[] libraryPaths = new String[libraries.size()];
+        for (int i = 0; i < libraryPaths.length; i++) {
+            libraryPaths[i] = libraries.get(i).getAbsolutePath();
+        }
+        return libraryPaths;
+    }
+
+    private RunOutcome execute(Request request, JobLimits limits, RunListener listener, Shards shards)
+            throws IOException, InterruptedException {
+        permits.acquire();
+        Runner runner = null;
+        try {
+            runner = idle.poll();
+            if (runner == null || !runner.process.isAlive()) {
+                if (runner != null) {
+                    runner.destroy();
+                }
+                runner = startRunner();
+            }
+            if (shards != null && !shards.add(runner)) {
+                offer(runner);
+                runner = null;
+                throw new InterruptedException("Test shards cancelled");
+            }
+            RunOutcome outcome;
+            try {
+                outcome = runner.run(request, limits, listener);
+            } finally {
+                if (shards != null) {
+                    shards.remove(runner);
+                }
+            }
+            if (runner.recycle || runner.runs >= maxRuns) {
+                runner.destroy();
+                replaceInBackground();
+            } else {
+                offer(runner);
+            }
+            runner = null;
+            return outcome;
+        } finally {
+            if (runner != null) {
+                // The run did not finish normally, the runner state is unknown
+                runner.destroy();
+                replaceInBackground();
+            }
+            permits.release();
+        }
+    }
+
+    private void replaceInBackground() {
+        Thread starter = new Thread(() -> {
+            try {
+                offer(startRunner());
+            } catch (IOException e) {
+                System.err.println(" [!] Could not start runner JVM: " + e.getMessage());
+            }
+        }, "runner-replace");
+        starter.setDaemon(true);
+        starter.start();
+    }
+
+    // Runners started while a job could not wait for them may exceed the pool size
+    private synchronized void offer(Runner runner) {
+        if (idle.size() < size) {
+            idle.add(runner);
+        } else {
+            runner.destroy();
+        }
+    }
+
+    private Runner startRunner() throws IOException {
+        // Only the runner can reach the socket of its frames, nothing the program writes can pass for one
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            byte[] secretBytes = new byte[32];
+            RANDOM.nextBytes(secretBytes);
+            String secret = Base64.getEncoder().encodeToString(secretBytes);
+            List<String> command = new ArrayList<>();
+            command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+            command.addAll(jvmOptions);
+            ClassDataArchives.Archive archive = archives.archive("runner", classpath());
+            command.addAll(archive.jvmOptions());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(RunnerMain.class.getName());
+            command.add(String.valueOf(memoryThreshold));
+            command.add(String.valueOf(server.getLocalPort()));
+            Process process = archive.start(new ProcessBuilder(command));
+            Metrics.processStarted("runner");
+            String name = "runner-" + runnerIds.incrementAndGet();
+            try {
+                // On stdin rather than the command line, which every process of the host can read
+                try (DataOutputStream handshake = new DataOutputStream(process.getOutputStream())) {
+                    handshake.writeUTF(secret);
+                }
+                return new Runner(process, name, accept(server, process, secret));
+            } catch (IOException e) {
+                ProcessWatchdog.killTree(process);
+                throw e;
+            }
+        }
+    }
+
+    // Connections that do not start with the secret of the runner are dropped
+    private static Socket accept(ServerSocket server, Process process, String secret) throws IOException {
+        long deadline = System.currentTimeMillis() + RUNNER_START_TIMEOUT_MILLIS;
+        server.setSoTimeout(500);
+        while (System.currentTimeMillis() < deadline) {
+            if (!process.isAlive()) {
+                throw new IOException("Runner JVM exited with code " + process.exitValue() + " before connecting");
+            }
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (SocketTimeoutException e) {
+                continue;
+            }
+            try {
+                socket.setSoTimeout(5000);
+                String received = new DataInputStream(socket.getInputStream()).readUTF();
+                if (MessageDigest.isEqual(received.getBytes(StandardCharsets.UTF_8),
+                        secret.getBytes(StandardCharsets.UTF_8))) {
+                    socket.setSoTimeout(0);
+                    socket.setTcpNoDelay(true);
+                    return socket;
+                }
+            } catch (IOException e) {
+                // Not our runner
+            }
+            socket.close();
+        }
+        throw new IOException("Runner JVM did not connect within " + RUNNER_START_TIMEOUT_MILLIS + " ms");
+    }
+
+    private static List<File> classpath() {
+        List<File> classpath = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classpath.add(new File(entry));
+        }
+        return classpath;
+    }
+
+    public void shutdown() {
+        Runner runner;
+        while ((runner = idle.poll()) != null) {
+            runner.destroy();
+        }
+    }
+
+    private interface Request {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Runners of the shards of one test run, killed when the run is given up.
+     */
+    private static final class Shards {
+        private final Set<Runner> runners = new HashSet<>();
+        private boolean cancelled;
+
+        synchronized boolean add(Runner runner) {
+            return !cancelled && runners.add(runner);
+        }
+
+        synchronized void remove(Runner runner) {
+            runners.remove(runner);
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            for (Runner runner : runners) {
+                runner.destroy();
+            }
+        }
+    }
+
+    private static final class Runner {
+        private final Process process;
+        private final String name;
+        private final Socket socket;
+        private final DataOutputStream requests;
+        private final DataInputStream frames;
+        // Where the plain text of stdout and stderr goes, null between runs
+        private volatile RunOutput current;
+        private int runs;
+        private boolean recycle;
+
+        Runner(Process process, String name, Socket socket) throws IOException {
+            this.process = process;
+            this.name = name;
+            this.socket = socket;
+            this.requests = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            this.frames = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            pump(process.getInputStream(), false, "-stdout");
+            pump(process.getErrorStream(), true, "-stderr");
+        }
+
+        // Text the program wrote on the file descriptors themselves belongs to its run; messages of the
+        // runner JVM itself (crashes, out of memory) between runs only go to the worker log
+        private void pump(InputStream stream, boolean error, String suffix) {
+            Thread pump = new Thread(() -> {
+                byte[] buffer = new byte[8192];
+                try (InputStream in = stream) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        RunOutput output = current;
+                        if (output != null) {
+                            output.write(error, buffer, read);
+                        } else {
+                            System.err.println(" [" + name + "] "
+                                    + new String(buffer, 0, read, Charset.defaultCharset()).trim());
+                        }
+                    }
+                } catch (IOException e) {
+                    // Runner is gone
+                }
+            }, name + suffix);
+            pump.setDaemon(true);
+            pump.start();
+        }
+
+        RunOutcome run(Request request, JobLimits limits, RunListener listener)
+                throws IOException, InterruptedException {
+            long startTime = System.currentTimeMillis();
+            runs++;
+            BoundedOutput output = new BoundedOutput(WorkerConfig.OUTPUT_MAX_BYTES);
+            BoundedOutput error = new BoundedOutput(WorkerConfig.OUTPUT_MAX_BYTES);
+            current = new RunOutput(output, error, listener);
+            List<TestResult> testResults = new ArrayList<>();
+            // A runner over a limit is killed, which ends the frames below
+            ProcessWatchdog.Watch watch = ProcessWatchdog.watch(process, limits,
+                    () -> output.getTotalBytes() + error.getTotalBytes());
+            int exitCode;
+            try {
+                request.writeTo(requests);
+                while (true) {
+                    int type = frames.readByte();
+                    if (type == RunnerMain.FRAME_EXIT) {
+                        exitCode = frames.readInt();
+                        recycle = frames.readBoolean();
+                        break;
+                    }
+                    if (type == RunnerMain.FRAME_TEST) {
+                        TestResult testResult = new TestResult.Builder()
+                                .testName(RunnerMain.readString(frames))
+                                .status(RunnerMain.readString(frames))
+                                .duration(frames.readLong())
+                                .data(RunnerMain.readString(frames))
+                                .stackTrace(RunnerMain.readString(frames))
+                                .build();
+                        testResults.add(testResult);
+                        listener.testFinished(testResult);
+                        continue;
+                    }
+                    if (type != RunnerMain.FRAME_STDOUT && type != RunnerMain.FRAME_STDERR) {
+                        throw new ProtocolException("Unknown frame " + type);
+                    }
+                    byte[] chunk = new byte[RunnerMain.readLength(frames)];
+                    frames.readFully(chunk);
+                    current.write(type == RunnerMain.FRAME_STDERR, chunk, chunk.length);
+                }
+            } catch (ProtocolException e) {
+                // A broken runner, nothing it sends can be trusted any more
+                System.err.println(" [!] " + name + " sent a corrupted stream: " + e.getMessage());
+                destroy();
+                process.waitFor();
+                byte[] message = ("Error: the runner sent a corrupted stream (" + e.getMessage() + ")"
+                        + System.lineSeparator()).getBytes(Charset.defaultCharset());
+                error.write(message, 0, message.length);
+                listener.error(message, 0, message.length);
+                exitCode = 1;
+                recycle = true;
+            } catch (EOFException e) {
+                // The program called System.exit or crashed the runner, its exit code is the runner's
+                exitCode = process.waitFor();
+                recycle = true;
+            } catch (IOException e) {
+                // Killed while we were still writing the request, or the socket reset by the runner dying
+                if (watch.getExceeded() == null && !process.waitFor(5, TimeUnit.SECONDS)) {
+                    throw e;
+                }
+                exitCode = process.waitFor();
+                recycle = true;
+            } finally {
+                watch.cancel();
+                current = null;
+            }
+            long runTime = System.currentTimeMillis() - startTime;
+            Charset charset = Charset.defaultCharset();
+            return new RunOutcome(exitCode, output.toString(charset), error.toString(charset), runTime,
+                    testResults, watch.getExceeded());
+        }
+
+        void destroy() {
+            ProcessWatchdog.killTree(process);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+
+    private static final class RunOutput {
+        private final BoundedOutput output;
+        private final BoundedOutput error;
+        private final RunListener listener;
+
+        RunOutput(BoundedOutput output, BoundedOutput error, RunListener listener) {
+            this.output = output;
+            this.error = error;
+            this.listener = listener;
+        }
+
+        void write(boolean isError, byte[] bytes, int length) {
+            if (isError) {
+                error.write(bytes, 0, length);
+                listener.error(bytes, 0, length);
+            } else {
+                output.write(bytes, 0, length);
+                listener.output(bytes, 0, length);
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.eseo.workers;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event of one stage of a job, next to the Timer of {@link Metrics.Stage}.
+ */
+@Name("com.eseo.workers.Stage")
+@Label("Job Stage")
+@Category("Java Worker")
+@Description("One stage of a job: queue, decode, classpath, compile, jar, run, test or publish")
+class StageEvent extends JobContextEvent {
+    @Label("Stage")
+    String stage;
+}
@@ -0,0 +1,97 @@
+package com.eseo.workers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.eseo.workers.JobWorker.TestResult;
+
+/**
+ * Splits the test classes of a job into shards run side by side. Shards are
+ * balanced on the time each class took the last time a class of that name ran,
+ * for any project: students of a class all submit the same grading suite.
+ */
+public class TestShards {
+    // Time of a class never seen, as good a guess as any
+    private static final long UNKNOWN_MILLIS = 100;
+    private static final int MAX_CLASSES = 10000;
+
+    private final int maxShards;
+    private final int minClassesPerShard;
+    private final Map<String, Long> durations = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_CLASSES;
+        }
+    };
+
+    public TestShards(int maxShards, int minClassesPerShard) {
+        this.maxShards = maxShards;
+        this.minClassesPerShard = Math.max(1, minClassesPerShard);
+    }
+
+    public static TestShards fromConfig() {
+        // More shards than runners would only wait for one another
+        return new TestShards(Math.min(WorkerConfig.TEST_SHARDS, WorkerConfig.RUNNER_POOL_SIZE),
+                WorkerConfig.TEST_SHARD_MIN_CLASSES);
+    }
+
+    /**
+     * The classes split into at most maxShards shards of at least minClassesPerShard
+     * classes, the longest classes first each on the shard that would end first.
+     */
+    public synchronized List<List<String>> split(List<String> testClasses) {
+        int shardCount = Math.max(1, Math.min(maxShards, testClasses.size() / minClassesPerShard));
+        if (shardCount == 1) {
+            return Collections.singletonList(testClasses);
+        }
+        List<String> longestFirst = new ArrayList<>(testClasses);
+        longestFirst.sort(Comparator.comparingLong(this::duration).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+        List<List<String>> shards = new ArrayList<>();
+        long[] shardMillis = new long[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new ArrayList<>());
+        }
+        for (String testClass : longestFirst) {
+            int shortest = 0;
+            for (int i = 1; i < shardCount; i++) {
+                if (shardMillis[i] < shardMillis[shortest]) {
+                    shortest = i;
+                }
+            }
+            shards.get(shortest).add(testClass);
+            shardMillis[shortest] += duration(testClass);
+        }
+        return shards;
+    }
+
+    private long duration(String testClass) {
+        Long millis = durations.get(testClass);
+        return millis == null ? UNKNOWN_MILLIS : millis;
+    }
+
+    /**
+     * Remembers how long every class took, from the results named "SimpleName.test()".
+     */
+    public synchronized void record(List<String> testClasses, List<TestResult> testResults) {
+        Map<String, String> bySimpleName = new HashMap<>();
+        for (String testClass : testClasses) {
+            bySimpleName.put(testClass.substring(testClass.lastIndexOf('.') + 1), testClass);
+        }
+        Map<String, Long> classMillis = new HashMap<>();
+        for (TestResult testResult : testResults) {
+            String name = testResult.getTestName();
+            int dot = name == null ? -1 : name.indexOf('.');
+            String testClass = dot < 0 ? null : bySimpleName.get(name.substring(0, dot));
+            if (testClass != null && testResult.getDuration() >= 0) {
+                classMillis.merge(testClass, testResult.getDuration(), Long::sum);
+            }
+        }
+        durations.putAll(classMillis);
+    }
+}
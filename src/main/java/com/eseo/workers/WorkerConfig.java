@@ -0,0 +1,211 @@
+package com.eseo.workers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Worker settings, read from system properties first (e.g. -Dworker.pool.size=8)
+ * and then from the environment (e.g. WORKER_POOL_SIZE=8) so they can be set in
+ * the container definition.
+ */
+public final class WorkerConfig {
+
+    // RabbitMQ server the jobs come from and the results go to
+    public static final String AMQP_HOST = setting("worker.amqp.host", "pfewc-rabbitmq-back.webcube.pfe.dns");
+    public static final int AMQP_PORT = intSetting("worker.amqp.port", 5672);
+
+    // Where jobs come from: queue (RabbitMQ), daemon (HTTP on WORKER_DAEMON_HOST:WORKER_DAEMON_PORT) or both
+    public static final String MODE = setting("worker.mode", "queue");
+    public static final String DAEMON_HOST = setting("worker.daemon.host", "127.0.0.1");
+    public static final int DAEMON_PORT = intSetting("worker.daemon.port", 9405);
+
+    // "exclusive" gives every worker its own queue, "shared" makes the workers compete for one durable queue
+    public static final String QUEUE_MODE = setting("worker.queue.mode", "exclusive");
+
+    // Name of the shared queue
+    public static final String QUEUE_NAME = setting("worker.queue.name", "jobs");
+
+    // Highest message priority of the shared queue, 0 declares it without priorities
+    public static final int QUEUE_MAX_PRIORITY = intSetting("worker.queue.max.priority", 0);
+
+    // Actions this worker takes jobs for when they are routed as jobs.<action>.<requestId>, empty for every job
+    public static final List<String> QUEUE_ACTIONS = listSetting("worker.queue.actions");
+
+    // Number of jobs handled at the same time, also used as the broker prefetch
+    public static final int POOL_SIZE = intSetting("worker.pool.size", Runtime.getRuntime().availableProcessors());
+
+    // Time given to in-flight jobs to finish when the worker is stopped
+    public static final long SHUTDOWN_TIMEOUT_MS = longSetting("worker.shutdown.timeout.ms", 30000);
+
+    // "inprocess" compiles with the JDK compiler API, "fork" starts a javac process per compilation
+    public static final String COMPILER_MODE = setting("worker.compiler", "inprocess");
+
+    // Compilations done with the same file manager before its cached jars are released
+    public static final int COMPILER_FILE_MANAGER_REUSE = intSetting("worker.compiler.file.manager.reuse", 200);
+
+    // Memory kept for the compressed entries of lib/ jars shared between jobs
+    public static final long LIBRARY_CACHE_BYTES = longSetting("worker.library.cache.mb", 256) * 1024 * 1024;
+
+    // lib/ jars whose SHA-256 is remembered until they change
+    public static final int LIBRARY_CACHE_FILES = intSetting("worker.library.cache.files", 10000);
+
+    // Only recompile the sources that changed since the last build of the same project
+    public static final boolean INCREMENTAL = booleanSetting("worker.incremental", true);
+
+    // Projects whose last build is kept for incremental compilation
+    public static final int INCREMENTAL_PROJECTS = intSetting("worker.incremental.projects", 500);
+
+    // "pool" runs programs in warm runner JVMs, "fork" starts a java process per run
+    public static final String RUN_MODE = setting("worker.run.mode", "pool");
+
+    // Runner JVMs kept warm for the run and junit actions
+    public static final int RUNNER_POOL_SIZE = intSetting("worker.runner.pool.size", POOL_SIZE);
+
+    // Runs a runner JVM handles before being replaced by a fresh one
+    public static final int RUNNER_MAX_RUNS = intSetting("worker.runner.max.runs", 50);
+
+    // Maximum heap of a runner JVM
+    public static final int RUNNER_HEAP_MB = intSetting("worker.runner.heap.mb", 256);
+
+    // Share of the runner heap still used after a run above which the runner is replaced
+    public static final double RUNNER_MEMORY_THRESHOLD = Double.parseDouble(
+            setting("worker.runner.memory.threshold", "0.75"));
+
+    // Output of a program, compiler or test run kept for its result, half from its start and half from its end
+    public static final int OUTPUT_MAX_BYTES = intSetting("worker.output.max.bytes", 1024 * 1024);
+
+    // Limits of programs and test runs, WORKER_LIMITS_<ACTION>_WALL_MS and so on override them for one action
+    public static final long LIMITS_WALL_MS = longSetting("worker.limits.wall.ms", 30000);
+
+    public static final long LIMITS_CPU_MS = longSetting("worker.limits.cpu.ms", 20000);
+
+    public static final int LIMITS_HEAP_MB = intSetting("worker.limits.heap.mb", RUNNER_HEAP_MB);
+
+    public static final long LIMITS_OUTPUT_BYTES = longSetting("worker.limits.output.bytes", 16 * 1024 * 1024);
+
+    // Streamed output is published once this many bytes are waiting...
+    public static final int STREAM_BATCH_BYTES = intSetting("worker.stream.batch.bytes", 16 * 1024);
+
+    // ...or after this delay, whichever comes first
+    public static final long STREAM_BATCH_MS = longSetting("worker.stream.batch.ms", 250);
+
+    // Final result encoding when the request does not choose one: text, json or smile
+    public static final String RESULT_FORMAT = setting("worker.result.format", "text");
+
+    // Json and smile results this large are gzipped, 0 (the default) never compresses them
+    public static final int RESULT_GZIP_BYTES = intSetting("worker.result.gzip.bytes", 0);
+
+    // Jobs are only acknowledged once the broker confirmed their result
+    public static final boolean RESULT_CONFIRMS = booleanSetting("worker.result.confirms", true);
+
+    // A result not confirmed within this delay is published again...
+    public static final long RESULT_CONFIRM_TIMEOUT_MS = longSetting("worker.result.confirm.timeout.ms", 5000);
+
+    // ...until it was published this many times, then its job is requeued
+    public static final int RESULT_MAX_ATTEMPTS = intSetting("worker.result.max.attempts", 5);
+
+    // Port of the Prometheus /metrics endpoint, 0 turns it off
+    public static final int METRICS_PORT = intSetting("worker.metrics.port", 9404);
+
+    // Jar of the jar and test actions when the request does not choose: fat (lib/ classes inside) or thin
+    public static final String JAR_LAYOUT = setting("worker.jar.layout", "fat");
+
+    // Jobs build in workspaces of their own, on tmpfs when lib/ jars take at most WORKSPACE_TMPFS_MB
+    public static final String WORKSPACE_DIR = setting("worker.workspace.dir", "/tmp/worker-workspaces");
+    public static final String WORKSPACE_TMPFS_DIR = setting("worker.workspace.tmpfs.dir",
+            "/dev/shm/worker-workspaces");
+    public static final long WORKSPACE_TMPFS_MAX_BYTES = longSetting("worker.workspace.tmpfs.mb", 64) * 1024 * 1024;
+
+    // How project classes are written into jars: deflate, or store for jars that are run once and thrown away
+    public static final String JAR_COMPRESSION = setting("worker.jar.compression", "deflate");
+
+    // Test classes of a job run in up to this many runner JVMs at once (in parallel in a forked JVM)...
+    public static final int TEST_SHARDS = intSetting("worker.test.shards",
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    // ...with at least this many classes each, smaller suites run in one runner
+    public static final int TEST_SHARD_MIN_CLASSES = intSetting("worker.test.shard.min.classes", 4);
+
+    // Results of identical submissions are reused, see ResultCache
+    public static final boolean RESULT_CACHE = booleanSetting("worker.result.cache", true);
+
+    // Actions whose successful results are reused, failed compilations are reused for every action
+    public static final List<String> RESULT_CACHE_ACTIONS = listSetting("worker.result.cache.actions", "jar");
+
+    public static final long RESULT_CACHE_BYTES = longSetting("worker.result.cache.mb", 64) * 1024 * 1024;
+
+    public static final String RESULT_CACHE_DIR = setting("worker.result.cache.dir", "/tmp/worker-results");
+
+    // 0 keeps the cache in memory only
+    public static final long RESULT_CACHE_DISK_BYTES = longSetting("worker.result.cache.disk.mb", 512) * 1024 * 1024;
+
+    // Child JVMs map AppCDS archives of the classes they load, recorded from the first child of each kind
+    public static final boolean CDS = booleanSetting("worker.cds", true);
+
+    public static final String CDS_DIR = setting("worker.cds.dir", "/tmp/worker-cds");
+
+    // Least recently used archives are deleted past this count, one is kept per set of lib jars
+    public static final int CDS_MAX_ARCHIVES = intSetting("worker.cds.max.archives", 20);
+
+    // Keeps a Java Flight Recorder recording of the worker, dumped for slow jobs only
+    public static final boolean PROFILE = booleanSetting("worker.profile", false);
+
+    // Jobs slower than this are dumped, with the recordings of their forked JVMs
+    public static final long PROFILE_THRESHOLD_MS = longSetting("worker.profile.threshold.ms", 10000);
+
+    public static final String PROFILE_DIR = setting("worker.profile.dir", "/tmp/worker-profiles");
+
+    // Forked program and test JVMs also record, which costs them some startup time
+    public static final boolean PROFILE_CHILDREN = booleanSetting("worker.profile.children", true);
+
+    // Oldest recordings are deleted past this count
+    public static final int PROFILE_MAX_FILES = intSetting("worker.profile.max.files", 50);
+
+    private WorkerConfig() {
+    }
+
+    static String setting(String name, String defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            value = System.getenv(name.toUpperCase().replace('.', '_'));
+        }
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    static int intSetting(String name, int defaultValue) {
+        return (int) longSetting(name, defaultValue);
+    }
+
+    static long longSetting(String name, long defaultValue) {
+        String value = setting(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value, e);
+        }
+    }
+
+    static List<String> listSetting(String name) {
+        return listSetting(name, "");
+    }
+
+    static List<String> listSetting(String name, String defaultValue) {
+        String value = setting(name, defaultValue);
+        List<String> values = new ArrayList<>();
+        for (String item : value.split(",")) {
+            if (!item.trim().isEmpty()) {
+                values.add(item.trim());
+            }
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    static boolean booleanSetting(String name, boolean defaultValue) {
+        String value = setting(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
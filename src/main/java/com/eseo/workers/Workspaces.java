@@ -0,0 +1,145 @@
+package com.eseo.workers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Scratch directories of the jobs, so jobs on the same project never write
+ * over one another's classes and jars. A job reads the sources and lib/ of its
+ * project where they are, writes what it builds into a workspace of its own,
+ * deleted when the job ends, and the jars it hands over are moved into the
+ * project in one step. Workspaces of small projects go on tmpfs, the others
+ * in a directory on disk.
+ */
+public class Workspaces {
+    // Left behind by a worker that was killed
+    private static final long STALE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final File dir;
+    private final File tmpfsDir;
+    private final long maxTmpfsBytes;
+    private final Set<File> swept = ConcurrentHashMap.newKeySet();
+
+    public Workspaces(File dir, File tmpfsDir, long maxTmpfsBytes) {
+        this.dir = dir;
+        this.tmpfsDir = tmpfsDir;
+        this.maxTmpfsBytes = maxTmpfsBytes;
+    }
+
+    public static Workspaces fromConfig() {
+        return new Workspaces(new File(WorkerConfig.WORKSPACE_DIR),
+                WorkerConfig.WORKSPACE_TMPFS_DIR.isEmpty() ? null : new File(WorkerConfig.WORKSPACE_TMPFS_DIR),
+                WorkerConfig.WORKSPACE_TMPFS_MAX_BYTES);
+    }
+
+    /**
+     * A new empty workspace for a job on the given project.
+     */
+    public Workspace create(File projectDir) throws IOException {
+        File root = fitsInTmpfs(projectDir) ? tmpfsDir : dir;
+        Files.createDirectories(root.toPath());
+        if (swept.add(root)) {
+            sweep(root);
+        }
+        return new Workspace(Files.createTempDirectory(root.toPath(), "job-").toFile());
+    }
+
+    // What a job writes is mostly its lib/ jars again, in a fat jar. Sources are small next to them,
+    // and are not walked: projects live on a network volume and this runs for every job
+    private boolean fitsInTmpfs(File projectDir) throws IOException {
+        if (tmpfsDir == null || maxTmpfsBytes <= 0) {
+            return false;
+        }
+        Path mount = tmpfsDir.toPath();
+        while (mount != null && !Files.isDirectory(mount)) {
+            mount = mount.getParent();
+        }
+        if (mount == null || !Files.isWritable(mount)) {
+            return false;
+        }
+        long bytes = 0;
+        File[] libraries = new File(projectDir, "lib").listFiles((dir, name) -> name.endsWith(".jar"));
+        if (libraries != null) {
+            for (File library : libraries) {
+                bytes += library.length();
+            }
+        }
+        return bytes <= maxTmpfsBytes && Files.getFileStore(mount).getUsableSpace() > 2 * bytes;
+    }
+
+    private static void sweep(File root) {
+        File[] workspaces = root.listFiles((parent, name) -> name.startsWith("job-"));
+        if (workspaces == null) {
+            return;
+        }
+        long staleBefore = System.currentTimeMillis() - STALE_MILLIS;
+        for (File workspace : workspaces) {
+            if (workspace.lastModified() < staleBefore) {
+                delete(workspace);
+            }
+        }
+    }
+
+    private static void delete(File dir) {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            System.err.println(" [!] Could not delete workspace " + dir + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * The workspace of one job, deleted with everything in it once closed.
+     */
+    public static final class Workspace implements AutoCloseable {
+        private final File dir;
+
+        private Workspace(File dir) {
+            this.dir = dir;
+        }
+
+        public File getDir() {
+            return dir;
+        }
+
+        public File file(String path) {
+            return new File(dir, path);
+        }
+
+        /**
+         * Moves a file built in the workspace to its place in the project. Readers of
+         * the project see the previous file or this one, never a file being written.
+         */
+        public void publish(File built, File target) throws IOException {
+            try {
+                Files.move(built.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                return;
+            } catch (AtomicMoveNotSupportedException e) {
+                // Another file system, the copy is renamed into place on the one of the project
+            }
+            Path partFile = Files.createTempFile(target.getAbsoluteFile().getParentFile().toPath(),
+                    "." + target.getName(), ".part");
+            try {
+                Files.copy(built.toPath(), partFile, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.COPY_ATTRIBUTES);
+                Files.move(partFile, target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(partFile);
+            }
+        }
+
+        @Override
+        public void close() {
+            delete(dir);
+        }
+    }
+}
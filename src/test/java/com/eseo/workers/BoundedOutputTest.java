@@ -0,0 +1,44 @@
+package com.eseo.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class BoundedOutputTest {
+
+    @Test
+    public void keepsEverythingBelowTheLimit() {
+        BoundedOutput output = new BoundedOutput(16);
+        write(output, "hello ");
+        write(output, "world");
+
+        assertFalse(output.isTruncated());
+        assertEquals("hello world", output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void keepsTheStartAndTheEndOfALongOutput() {
+        BoundedOutput output = new BoundedOutput(8);
+        write(output, "abcd");
+        for (int i = 0; i < 100; i++) {
+            write(output, "-");
+        }
+        write(output, "wx");
+        write(output, "yz");
+
+        assertTrue(output.isTruncated());
+        assertEquals(108, output.getTotalBytes());
+        String lineSeparator = System.lineSeparator();
+        assertEquals("abcd" + lineSeparator + "... [100 bytes truncated] ..." + lineSeparator + "wxyz",
+                output.toString(StandardCharsets.UTF_8));
+    }
+
+    private static void write(BoundedOutput output, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        output.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,107 @@
+package com.eseo.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClassDataArchivesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void onlyTheFirstChildRecordsItsClasses() throws Exception {
+        ClassDataArchives archives = new ClassDataArchives(folder.newFolder("cds"), true, 10);
+        List<File> classpath = Collections.singletonList(jar("lib.jar"));
+
+        assertTrue(archives.archive("program", classpath).jvmOptions().get(0).startsWith("-XX:DumpLoadedClassList="));
+        assertEquals(Collections.emptyList(), archives.archive("program", classpath).jvmOptions());
+        assertTrue(archives.archive("tests", classpath).jvmOptions().get(0).startsWith("-XX:DumpLoadedClassList="));
+    }
+
+    @Test
+    public void laterChildrenMapTheArchiveOfTheirClassPath() throws Exception {
+        File dir = folder.newFolder("cds");
+        ClassDataArchives archives = new ClassDataArchives(dir, true, 10);
+        File jar = jar("lib.jar");
+        List<File> classpath = new ArrayList<>();
+        classpath.add(jar);
+        classpath.add(folder.newFolder("classes"));
+
+        java(archives.archive("program", classpath), jar).waitFor();
+        long deadline = System.currentTimeMillis() + 60000;
+        List<String> options;
+        do {
+            Thread.sleep(100);
+            options = archives.archive("program", classpath).jvmOptions();
+        } while (options.isEmpty() && System.currentTimeMillis() < deadline);
+
+        assertTrue(options.toString(), options.get(0).startsWith("-XX:SharedArchiveFile=" + dir));
+        List<String> command = new ArrayList<>(options);
+        command.add("-Xshare:on");
+        assertEquals(0, java(command, jar).waitFor());
+
+        // A changed jar is archived again
+        assertTrue(jar.setLastModified(jar.lastModified() - 10000));
+        assertTrue(archives.archive("program", classpath).jvmOptions().get(0).startsWith("-XX:DumpLoadedClassList="));
+    }
+
+    @Test
+    public void projectsWithTheSameLibJarsShareOneArchive() throws Exception {
+        File dir = folder.newFolder("cds");
+        ClassDataArchives archives = new ClassDataArchives(dir, true, 10);
+        LibraryJarCache libraries = new LibraryJarCache(1024 * 1024);
+        File first = jar("first.jar");
+        File second = jar("second.jar");
+        assertTrue(second.setLastModified(first.lastModified() - 10000));
+
+        ClassDataArchives.Archive firstArchive = archives.contentArchive("program",
+                Collections.singletonList(first), libraries);
+        ClassDataArchives.Archive secondArchive = archives.contentArchive("program",
+                Collections.singletonList(second), libraries);
+
+        assertEquals(firstArchive.classpath(), secondArchive.classpath());
+        assertEquals(new File(dir, "jars/" + libraries.sha256(first) + ".jar").getAbsoluteFile(),
+                secondArchive.classpath().get(0));
+        assertTrue(firstArchive.jvmOptions().get(0).startsWith("-XX:DumpLoadedClassList="));
+        assertEquals(Collections.emptyList(), secondArchive.jvmOptions());
+    }
+
+    private static Process java(ClassDataArchives.Archive archive, File jar) throws IOException {
+        return archive.start(javaVersion(archive.jvmOptions(), jar));
+    }
+
+    private static Process java(List<String> options, File jar) throws IOException {
+        return javaVersion(options, jar).start();
+    }
+
+    private static ProcessBuilder javaVersion(List<String> options, File jar) {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.addAll(options);
+        command.add("-cp");
+        command.add(jar.getPath());
+        command.add("-version");
+        return new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD);
+    }
+
+    private File jar(String name) throws IOException {
+        File jar = folder.newFile(name);
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), new Manifest())) {
+            out.flush();
+        }
+        return jar;
+    }
+}
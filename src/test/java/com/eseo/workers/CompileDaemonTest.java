@@ -0,0 +1,173 @@
+package com.eseo.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompileDaemonTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ExecutorService executor;
+    private CompileDaemon daemon;
+
+    @Before
+    public void setUp() throws IOException {
+        executor = Executors.newFixedThreadPool(2);
+        daemon = new CompileDaemon(new InetSocketAddress("127.0.0.1", 0), executor);
+        daemon.start();
+    }
+
+    @After
+    public void tearDown() {
+        daemon.stop();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void rejectsInvalidRequests() throws IOException {
+        assertEquals(400, post("/jobs/deploy", "{\"projectPath\": \"/p\"}").getResponseCode());
+        assertEquals(400, post("/jobs", "{\"projectPath\": \"/p\"}").getResponseCode());
+        HttpURLConnection get = (HttpURLConnection) url("/jobs").openConnection();
+        assertEquals(405, get.getResponseCode());
+    }
+
+    @Test
+    public void answersWithTheResultOfTheJob() throws IOException {
+        File project = folder.newFolder("project");
+        File source = new File(project, "src/main/Main.java");
+        source.getParentFile().mkdirs();
+        new File(project, "lib").mkdirs();
+        Files.write(source.toPath(), "public class Main { int broken( }".getBytes(StandardCharsets.UTF_8));
+
+        HttpURLConnection connection = post("/jobs/jar",
+                "{\"projectPath\": \"" + project.getAbsolutePath() + "\", \"format\": \"json\"}");
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("application/json", connection.getContentType());
+        try (InputStream in = connection.getInputStream()) {
+            String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(body, body.contains("\"status\":\"COMPILATION_FAILED\""));
+        }
+    }
+
+    @Test
+    public void answersWithAnErrorResultWhenTheJobFails() throws IOException {
+        File missing = new File(folder.getRoot(), "missing");
+
+        HttpURLConnection connection = post("/jobs/run",
+                "{\"projectPath\": \"" + missing.getAbsolutePath() + "\", \"format\": \"json\"}");
+
+        assertEquals(200, connection.getResponseCode());
+        try (InputStream in = connection.getInputStream()) {
+            JsonNode result = new ObjectMapper().readTree(in);
+            assertEquals("ERROR", result.get("status").asText());
+            assertTrue(result.has("error"));
+        }
+    }
+
+    @Test
+    public void reportsTheResultOfEveryTest() throws IOException {
+        File project = folder.newFolder("JavaTestProject");
+        copy(new File("JavaTestProject"), project);
+
+        HttpURLConnection connection = post("/jobs/junit",
+                "{\"projectPath\": \"" + project.getAbsolutePath() + "\", \"format\": \"json\"}");
+
+        assertEquals(200, connection.getResponseCode());
+        JsonNode result;
+        try (InputStream in = connection.getInputStream()) {
+            result = new ObjectMapper().readTree(in);
+        }
+        assertEquals("TESTS_FAILED", result.get("status").asText());
+        Map<String, String> tests = new TreeMap<>();
+        for (JsonNode test : result.get("tests")) {
+            tests.put(test.get("testName").asText(), test.get("status").asText());
+        }
+        Map<String, String> expected = new TreeMap<>();
+        expected.put("PersonTest.testToString()", "FAILED");
+        expected.put("SiuTest.testGetAge()", "SUCCESS");
+        expected.put("SiuTest.testGetName()", "SUCCESS");
+        expected.put("SiuTest.testToString()", "SUCCESS");
+        assertEquals(expected, tests);
+    }
+
+    @Test
+    public void failsTheRunOfAProjectWithoutTests() throws IOException {
+        File project = folder.newFolder("JavaTestProject");
+        copy(new File("JavaTestProject"), project);
+        File tests = new File(project, "src/test/NoTest.java");
+        tests.getParentFile().mkdirs();
+        try (Stream<Path> paths = Files.walk(tests.getParentFile().toPath())) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (path.toString().endsWith(".java")) {
+                    Files.delete(path);
+                }
+            }
+        }
+        Files.write(tests.toPath(), "public class NoTest { }".getBytes(StandardCharsets.UTF_8));
+
+        HttpURLConnection connection = post("/jobs/junit",
+                "{\"projectPath\": \"" + project.getAbsolutePath() + "\", \"format\": \"json\"}");
+
+        assertEquals(200, connection.getResponseCode());
+        try (InputStream in = connection.getInputStream()) {
+            JsonNode result = new ObjectMapper().readTree(in);
+            assertEquals("RUN_FAILED", result.get("status").asText());
+            assertEquals(0, result.get("tests").size());
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        try (Stream<Path> paths = Files.walk(from.toPath())) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path target = to.toPath().resolve(from.toPath().relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(path, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    private HttpURLConnection post(String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url(path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return connection;
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + daemon.getPort() + path);
+    }
+}
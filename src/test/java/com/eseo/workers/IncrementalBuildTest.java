@@ -0,0 +1,152 @@
+package com.eseo.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IncrementalBuildTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final IncrementalCompiler compiler = new IncrementalCompiler(
+            new JavaCompilerEngine(JavaCompilerEngine.Mode.IN_PROCESS), true, 10);
+    private File projectDir;
+    private File srcDir;
+
+    @Before
+    public void createProject() throws IOException {
+        projectDir = folder.newFolder("project");
+        srcDir = new File(projectDir, "src/main");
+        write("app/Greeter.java", "package app; public class Greeter { public String greet() { return \"Hello \" + Name.get(); } }");
+        write("app/Name.java", "package app; public class Name { public static String get() { return \"World\"; } }");
+        write("app/Other.java", "package app; public class Other { }");
+        write("app/Limits.java", "package app; public class Limits { public static final int MAX = 1; }");
+        write("app/User.java", "package app; public class User { int max() { return Limits.MAX; } }");
+    }
+
+    @Test
+    public void compilesEverythingTheFirstTime() throws Exception {
+        IncrementalBuild build = build();
+
+        assertEquals(5, build.getCompiledSources());
+        assertNotNull(build.getClasses().get("app.Greeter"));
+    }
+
+    @Test
+    public void skipsCompilationWhenNothingChanged() throws Exception {
+        build();
+
+        IncrementalBuild build = build();
+
+        assertEquals(0, build.getCompiledSources());
+        assertEquals(5, build.getClasses().asMap().size());
+    }
+
+    @Test
+    public void recompilesChangedSourcesAndTheirDependents() throws Exception {
+        build();
+        write("app/Name.java", "package app; public class Name { public static String get() { return \"You\"; } }");
+
+        IncrementalBuild build = build();
+
+        assertEquals(2, build.getCompiledSources());
+        assertEquals(5, build.getClasses().asMap().size());
+    }
+
+    @Test
+    public void recompilesEverythingWhenAConstantChanges() throws Exception {
+        build();
+        write("app/Limits.java", "package app; public class Limits { public static final int MAX = 2; }");
+
+        IncrementalBuild build = build();
+
+        // Limits and User first, then every source once the new value is seen
+        assertEquals(2 + 5, build.getCompiledSources());
+    }
+
+    @Test
+    public void keepsThePreviousStateAfterAFailedCompilation() throws Exception {
+        build();
+        write("app/Other.java", "package app; public class Other { oops }");
+        IncrementalBuild failed = begin();
+        assertFalse(failed.compile(srcDir, sources(), Arrays.asList("-proc:none"), projectDir).isSuccess());
+        failed.close();
+
+        write("app/Other.java", "package app; public class Other { int fixed; }");
+        IncrementalBuild build = build();
+
+        assertEquals(1, build.getCompiledSources());
+    }
+
+    @Test
+    public void tellsWhenAnArtifactIsUpToDate() throws Exception {
+        IncrementalBuild first = build();
+        File jar = new File(projectDir, "output.jar");
+        Files.write(jar.toPath(), new byte[] { 1, 2, 3 });
+        first.recordArtifact(jar);
+
+        assertTrue(build().isUpToDate(jar));
+
+        write("app/Other.java", "package app; public class Other { int changed; }");
+        assertFalse(build().isUpToDate(jar));
+    }
+
+    @Test
+    public void releasedBuildLetsTheNextOneCompile() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (IncrementalBuild first = begin()) {
+            assertTrue(first.compile(srcDir, sources(), Arrays.asList("-proc:none"), projectDir).isSuccess());
+            first.release();
+
+            IncrementalBuild second = executor.submit(this::build).get(30, TimeUnit.SECONDS);
+
+            assertEquals(0, second.getCompiledSources());
+            assertEquals(5, first.getClasses().asMap().size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private IncrementalBuild begin() throws IOException {
+        return compiler.begin(projectDir, "no-libraries");
+    }
+
+    private IncrementalBuild build() throws Exception {
+        try (IncrementalBuild build = begin()) {
+            CompilationResult result = build.compile(srcDir, sources(), Arrays.asList("-proc:none"), projectDir);
+            assertTrue(result.getOutput(), result.isSuccess());
+            return build;
+        }
+    }
+
+    private List<File> sources() throws IOException {
+        List<File> sources = new ArrayList<>();
+        Files.walk(srcDir.toPath()).filter(path -> path.toString().endsWith(".java"))
+                .forEach(path -> sources.add(path.toFile()));
+        return sources;
+    }
+
+    private void write(String relativePath, String content) throws IOException {
+        File file = new File(srcDir, relativePath);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,109 @@
+package com.eseo.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JavaCompilerEngineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final JavaCompilerEngine engine = new JavaCompilerEngine(JavaCompilerEngine.Mode.IN_PROCESS);
+
+    @Test
+    public void projectsDoNotSeeTheSourcesOfThePreviousOne() throws Exception {
+        File first = folder.newFolder("first");
+        write(first, "p/Helper.java", "package p; public class Helper { public static int get() { return 1; } }");
+        File firstMain = write(first, "Main.java", "public class Main { int value = p.Helper.get(); }");
+        File second = folder.newFolder("second");
+        File secondMain = write(second, "Main.java", "public class Main { int value = p.Helper.get(); }");
+
+        CompilationResult firstCompilation = engine.compile(Arrays.asList("-d", classes(first),
+                "-sourcepath", new File(first, "src").getAbsolutePath()), Collections.singletonList(firstMain), first);
+        CompilationResult secondCompilation = engine.compile(Arrays.asList("-d", classes(second)),
+                Collections.singletonList(secondMain), second);
+
+        assertEquals(0, firstCompilation.getExitCode());
+        assertTrue(new File(classes(first), "p/Helper.class").isFile());
+        assertNotEquals(0, secondCompilation.getExitCode());
+        assertFalse(new File(classes(second), "p/Helper.class").exists());
+        assertFalse(new File(classes(second), "Main.class").exists());
+    }
+
+    @Test
+    public void classesInMemoryDoNotComeFromThePreviousProject() throws Exception {
+        File first = folder.newFolder("first");
+        write(first, "p/Helper.java", "package p; public class Helper { public static int get() { return 1; } }");
+        File firstMain = write(first, "Main.java", "public class Main { int value = p.Helper.get(); }");
+        File second = folder.newFolder("second");
+        File secondMain = write(second, "Main.java", "public class Main { }");
+
+        engine.compile(Arrays.asList("-sourcepath", new File(first, "src").getAbsolutePath()),
+                Collections.singletonList(firstMain), first, new CompiledClasses());
+        CompiledClasses classes = new CompiledClasses();
+        CompilationResult compilation = engine.compile(Collections.<String>emptyList(),
+                Collections.singletonList(secondMain), second, classes);
+
+        assertEquals(0, compilation.getExitCode());
+        assertNull(classes.get("p.Helper"));
+        assertEquals(Collections.singleton("Main"), classes.asMap().keySet());
+    }
+
+    @Test
+    public void classesKeptInMemoryAreJarred() throws Exception {
+        File project = folder.newFolder("project");
+        File libDir = new File(project, "lib");
+        libDir.mkdir();
+        write(project, "main/app/Name.java",
+                "package main.app; public class Name { public static String get() { return \"World\"; } }");
+        File main = write(project, "main/app/Main.java",
+                "package main.app; public class Main { public String greet() { return \"Hello \" + Name.get(); } }");
+        CompiledClasses classes = new CompiledClasses();
+        engine.compile(Arrays.asList("-sourcepath", new File(project, "src").getAbsolutePath()),
+                Collections.singletonList(main), project, classes);
+        File jar = new File(project, "output.jar");
+
+        JobWorker.writeJarFile(jar, "app.Main", classes, null, libDir, JarLayout.FAT, JarWriter.Compression.DEFLATE);
+
+        assertFalse(new File(project, "classes").exists());
+        assertFalse(new File(project, "src/main/app/Main.class").exists());
+        try (JarFile jarFile = new JarFile(jar);
+                URLClassLoader loader = new URLClassLoader(new URL[] { jar.toURI().toURL() }, null)) {
+            String mainClass = jarFile.getManifest().getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+            assertEquals("main.app.Main", mainClass);
+            assertNotNull(jarFile.getEntry("main/app/Name.class"));
+            Class<?> type = loader.loadClass(mainClass);
+            assertEquals("Hello World", type.getMethod("greet").invoke(type.getConstructor().newInstance()));
+        }
+    }
+
+    private static String classes(File project) {
+        return new File(project, "classes").getAbsolutePath();
+    }
+
+    private static File write(File project, String path, String content) throws IOException {
+        File file = new File(project, "src/" + path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
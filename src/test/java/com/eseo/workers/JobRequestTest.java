@@ -0,0 +1,79 @@
+package com.eseo.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class JobRequestTest {
+
+    @Test
+    public void decodesEveryField() throws Exception {
+        JobRequest request = decode("{\"projectPath\": \"/p\", \"action\": \"run\", \"stream\": true,"
+                + " \"format\": \"json\", \"jarLayout\": \"thin\", \"priority\": 3, \"jdk\": 11, \"limits\": {\"wallMs\": 100},"
+                + " \"addedLater\": 1}", null);
+
+        assertEquals("/p", request.getProjectPath());
+        assertEquals("run", request.getAction());
+        assertTrue(request.isStream());
+        assertEquals(ResultFormat.JSON, request.getResultFormat());
+        assertEquals(JarLayout.THIN, request.getJarLayout());
+        assertEquals(Integer.valueOf(3), request.getPriority());
+        assertEquals(Integer.valueOf(11), request.getJdk());
+        assertEquals(Long.valueOf(100), request.getLimits().getWallMs());
+        assertNull(request.getLimits().getCpuMs());
+    }
+
+    @Test
+    public void takesTheActionFromTheRoutingKey() throws Exception {
+        JobRequest request = decode("{\"projectPath\": \"/p\"}", "junit");
+
+        assertEquals("junit", request.getAction());
+        assertFalse(request.isStream());
+        assertNull(request.getJdk());
+    }
+
+    @Test
+    public void requestedLimitsCanOnlyLowerTheDefaults() throws Exception {
+        JobLimits defaults = new JobLimits(1000, 1000, 256, 1024);
+        JobLimits limits = decode("{\"projectPath\": \"/p\", \"action\": \"run\","
+                + " \"limits\": {\"wallMs\": 50, \"heapMb\": 4096}}", null).limitsFor(defaults);
+
+        assertEquals(50, limits.getWallTimeMillis());
+        assertEquals(1000, limits.getCpuTimeMillis());
+        assertEquals(256, limits.getHeapMb());
+        assertEquals(1024, limits.getOutputBytes());
+    }
+
+    @Test
+    public void rejectsInvalidMessages() {
+        assertInvalid("not json");
+        assertInvalid("{\"action\": \"run\"}");
+        assertInvalid("{\"projectPath\": \"/p\"}");
+        assertInvalid("{\"projectPath\": \"/p\", \"action\": \"deploy\"}");
+        assertInvalid("{\"projectPath\": \"/p\", \"action\": \"run\", \"format\": \"yaml\"}");
+        assertInvalid("{\"projectPath\": \"/p\", \"action\": \"jar\", \"jarLayout\": \"uber\"}");
+        assertInvalid("{\"projectPath\": \"/p\", \"action\": \"run\", \"priority\": 300}");
+        assertInvalid("{\"projectPath\": \"/p\", \"action\": \"run\", \"jdk\": 7}");
+        assertInvalid("{\"projectPath\": \"/p\", \"action\": \"run\", \"limits\": {\"cpuMs\": 0}}");
+        assertInvalid("{\"projectPath\": \"/p\", \"action\": \"run\", \"priority\": \"high\"}");
+    }
+
+    private static void assertInvalid(String json) {
+        try {
+            decode(json, null);
+            fail("Accepted " + json);
+        } catch (InvalidJobRequestException e) {
+            // expected
+        }
+    }
+
+    private static JobRequest decode(String json, String routedAction) throws InvalidJobRequestException {
+        return JobRequest.decode(json.getBytes(StandardCharsets.UTF_8), routedAction);
+    }
+}
@@ -0,0 +1,230 @@
+package com.eseo.workers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LibraryJarCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void copiesLibraryEntriesWithoutTheirManifest() throws IOException {
+        File library = createLibrary("library.jar");
+        LibraryJarCache cache = new LibraryJarCache(1024 * 1024);
+
+        List<RawJarEntry> entries = cache.entries(library);
+
+        assertEquals(2, entries.size());
+        assertEquals("org/example/Library.class", entries.get(0).getName());
+        assertEquals("META-INF/services/org.example.Service", entries.get(1).getName());
+        assertSame(entries, cache.entries(library));
+    }
+
+    @Test
+    public void sharesEntriesOfIdenticalJars() throws IOException {
+        File first = createLibrary("first.jar");
+        File second = folder.newFile("second.jar");
+        Files.copy(first.toPath(), second.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        LibraryJarCache cache = new LibraryJarCache(1024 * 1024);
+
+        assertSame(cache.entries(first), cache.entries(second));
+    }
+
+    @Test
+    public void forgetsTheHashesOfLeastRecentlyUsedFiles() throws IOException {
+        File first = folder.newFile("first.jar");
+        File second = folder.newFile("second.jar");
+        Files.write(first.toPath(), bytes("aaaa"));
+        Files.write(second.toPath(), bytes("bbbb"));
+        LibraryJarCache cache = new LibraryJarCache(1024 * 1024, 1);
+        String firstHash = cache.sha256(first);
+        cache.sha256(second);
+
+        // Same size and modification time, only a hash computed again sees the change
+        long lastModified = first.lastModified();
+        Files.write(first.toPath(), bytes("bbbb"));
+        first.setLastModified(lastModified);
+
+        assertFalse(firstHash.equals(cache.sha256(first)));
+        assertEquals(cache.sha256(second), cache.sha256(first));
+    }
+
+    @Test
+    public void writesReadableJarFromRawEntries() throws IOException {
+        File library = createLibrary("library.jar");
+        LibraryJarCache cache = new LibraryJarCache(1024 * 1024);
+        File output = folder.newFile("output.jar");
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "com.example.Main");
+        try (JarWriter jar = new JarWriter(new FileOutputStream(output))) {
+            jar.writeManifest(manifest);
+            assertTrue(jar.addEntry("com/example/Main.class", bytes("main"), System.currentTimeMillis()));
+            for (RawJarEntry entry : cache.entries(library)) {
+                assertTrue(jar.addRawEntry(entry));
+            }
+            assertFalse(jar.addRawEntry(cache.entries(library).get(0)));
+        }
+
+        try (JarFile jarFile = new JarFile(output)) {
+            assertEquals("com.example.Main", jarFile.getManifest().getMainAttributes().getValue(Attributes.Name.MAIN_CLASS));
+            assertEquals(4, jarFile.size());
+            assertArrayEquals(bytes("main"), read(jarFile, "com/example/Main.class"));
+            assertArrayEquals(bytes("library"), read(jarFile, "org/example/Library.class"));
+            assertArrayEquals(bytes("org.example.ServiceImpl\n"), read(jarFile, "META-INF/services/org.example.Service"));
+        }
+    }
+
+    @Test
+    public void writesStoredDirectoryEntriesInPathOrder() throws IOException {
+        File classes = folder.newFolder("classes");
+        for (int i = 0; i < 40; i++) {
+            File file = new File(classes, "com/example/p" + (i % 3) + "/C" + i + ".class");
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), bytes("class " + i));
+        }
+        File output = folder.newFile("stored.jar");
+
+        try (JarWriter jar = new JarWriter(new FileOutputStream(output), JarWriter.Compression.STORE)) {
+            jar.addDirectory(classes.toPath());
+        }
+
+        try (JarFile jarFile = new JarFile(output)) {
+            List<JarEntry> entries = Collections.list(jarFile.entries());
+            assertEquals(40, entries.size());
+            for (int i = 1; i < entries.size(); i++) {
+                assertTrue(entries.get(i - 1).getName().compareTo(entries.get(i).getName()) < 0);
+            }
+            assertEquals(ZipEntry.STORED, jarFile.getEntry("com/example/p1/C7.class").getMethod());
+            assertArrayEquals(bytes("class 7"), read(jarFile, "com/example/p1/C7.class"));
+        }
+    }
+
+    @Test
+    public void writesZip64RecordsPastTheEntryLimit() throws IOException {
+        File output = folder.newFile("large.jar");
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 70_000; i++) {
+            entries.put("com/example/C" + i + ".class", bytes("class " + i));
+        }
+
+        try (JarWriter jar = new JarWriter(new FileOutputStream(output), JarWriter.Compression.STORE)) {
+            jar.addEntries(entries, System.currentTimeMillis());
+        }
+
+        try (JarFile jarFile = new JarFile(output)) {
+            assertEquals(70_000, jarFile.size());
+            assertArrayEquals(bytes("class 69999"), read(jarFile, "com/example/C69999.class"));
+        }
+    }
+
+    @Test
+    public void mergesServiceFilesAndDropsSignaturesOfLibraries() throws IOException {
+        File first = createLibrary("first.jar");
+        File second = folder.newFile("second.jar");
+        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(second))) {
+            jos.putNextEntry(new JarEntry("org/example/Library.class"));
+            jos.write(bytes("other"));
+            jos.putNextEntry(new JarEntry("META-INF/services/org.example.Service"));
+            jos.write(bytes("# another one\norg.example.OtherImpl\norg.example.ServiceImpl\n"));
+            jos.putNextEntry(new JarEntry("META-INF/SIGNER.SF"));
+            jos.write(bytes("Signature-Version: 1.0\n"));
+            jos.putNextEntry(new JarEntry("module-info.class"));
+            jos.write(bytes("module"));
+        }
+        LibraryJarCache cache = new LibraryJarCache(1024 * 1024);
+        File output = folder.newFile("merged.jar");
+
+        try (JarWriter jar = new JarWriter(new FileOutputStream(output))) {
+            LibraryMerger merger = new LibraryMerger(jar);
+            merger.addLibrary(cache.entries(first));
+            merger.addLibrary(cache.entries(second));
+            assertEquals(1, merger.finish(System.currentTimeMillis()));
+        }
+
+        try (JarFile jarFile = new JarFile(output)) {
+            assertEquals(2, jarFile.size());
+            assertArrayEquals(bytes("library"), read(jarFile, "org/example/Library.class"));
+            assertArrayEquals(bytes("org.example.ServiceImpl\norg.example.OtherImpl\n"),
+                    read(jarFile, "META-INF/services/org.example.Service"));
+        }
+    }
+
+    @Test
+    public void thinJarNamesItsLibrariesInItsClassPath() throws IOException {
+        File project = folder.newFolder("my project");
+        File libDir = new File(project, "lib");
+        libDir.mkdirs();
+        Files.copy(createLibrary("b lib.jar").toPath(), new File(libDir, "b lib.jar").toPath());
+        Files.copy(createLibrary("a.jar").toPath(), new File(libDir, "a.jar").toPath());
+        File classesDir = new File(project, "classes");
+        new File(classesDir, "com/example").mkdirs();
+        Files.write(new File(classesDir, "com/example/Main.class").toPath(), bytes("main"));
+        File output = new File(project, "output.jar");
+
+        JobWorker.writeJarFile(output, "com.example.Main", null, classesDir, libDir, JarLayout.THIN,
+                JarWriter.Compression.DEFLATE);
+
+        try (JarFile jarFile = new JarFile(output)) {
+            assertEquals("lib/a.jar lib/b%20lib.jar",
+                    jarFile.getManifest().getMainAttributes().getValue(Attributes.Name.CLASS_PATH));
+            assertEquals(2, jarFile.size());
+            assertArrayEquals(bytes("main"), read(jarFile, "com/example/Main.class"));
+        }
+    }
+
+    // JarOutputStream writes data descriptors, the cache has to rely on the central directory
+    private File createLibrary(String name) throws IOException {
+        File library = folder.newFile(name);
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(library), manifest)) {
+            jos.putNextEntry(new JarEntry("org/"));
+            jos.closeEntry();
+            jos.putNextEntry(new JarEntry("org/example/Library.class"));
+            jos.write(bytes("library"));
+            jos.closeEntry();
+            jos.putNextEntry(new JarEntry("META-INF/services/org.example.Service"));
+            jos.write(bytes("org.example.ServiceImpl\n"));
+            jos.closeEntry();
+        }
+        return library;
+    }
+
+    private static byte[] read(JarFile jarFile, String name) throws IOException {
+        try (InputStream is = jarFile.getInputStream(jarFile.getEntry(name))) {
+            return is.readAllBytes();
+        }
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+}
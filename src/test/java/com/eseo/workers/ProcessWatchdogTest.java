@@ -0,0 +1,46 @@
+package com.eseo.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ProcessWatchdogTest {
+
+    private final JobLimits limits = new JobLimits(1000, 1000, 64, 10000);
+
+    @Test
+    public void killsTheProcessTreeAfterTheWallTime() throws Exception {
+        long startTime = System.currentTimeMillis();
+        Process process = new ProcessBuilder("sh", "-c", "sleep 30 & sleep 30; echo done").start();
+
+        RunOutcome outcome = ProcessWatchdog.waitFor(process, ProcessOutput.drain(process), limits, startTime);
+
+        assertEquals(JobLimits.Limit.WALL_TIME, outcome.getExceededLimit());
+        assertEquals("", outcome.getOutput());
+        assertTrue(outcome.getRunTime() < 10000);
+    }
+
+    @Test
+    public void killsAProcessPrintingTooMuch() throws Exception {
+        Process process = new ProcessBuilder("yes").start();
+
+        RunOutcome outcome = ProcessWatchdog.waitFor(process, ProcessOutput.drain(process), limits,
+                System.currentTimeMillis());
+
+        assertEquals(JobLimits.Limit.OUTPUT, outcome.getExceededLimit());
+    }
+
+    @Test
+    public void leavesAProcessWithinItsLimitsAlone() throws Exception {
+        Process process = new ProcessBuilder("sh", "-c", "echo done; exit 3").start();
+
+        RunOutcome outcome = ProcessWatchdog.waitFor(process, ProcessOutput.drain(process), limits,
+                System.currentTimeMillis());
+
+        assertNull(outcome.getExceededLimit());
+        assertEquals(3, outcome.getExitCode());
+        assertEquals("done", outcome.getOutput().trim());
+    }
+}
@@ -0,0 +1,182 @@
+package com.eseo.workers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.eseo.workers.JobWorker.TestResult;
+
+public class ResultCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LibraryJarCache libraries = new LibraryJarCache(1024 * 1024);
+
+    @Test
+    public void identicalProjectsShareTheirKey() throws Exception {
+        ResultCache cache = cache(1024 * 1024, 0);
+        File first = project("first", "class A {}");
+        File second = project("second", "class A {}");
+        File changed = project("changed", "class A { }");
+
+        assertEquals(cache.key(request(first, "junit")), cache.key(request(second, "junit")));
+        assertNotEquals(cache.key(request(first, "junit")), cache.key(request(changed, "junit")));
+        assertNotEquals(cache.key(request(first, "junit")), cache.key(request(first, "jar")));
+    }
+
+    @Test
+    public void givesTheResultWithThePathsOfTheAskingProject() throws Exception {
+        ResultCache cache = cache(1024 * 1024, 0);
+        File first = project("first", "class A {}");
+        File second = project("second", "class A {}");
+        TestResult test = new TestResult.Builder().testName("ATest.works").status("SUCCESSFUL").duration(3).build();
+        JobResult result = new JobResult.Builder()
+                .status(JobResult.Status.TESTS_FAILED)
+                .exitCode(1)
+                .diagnostics(Collections.singletonList(new CompileDiagnostic("WARNING",
+                        first.getAbsolutePath() + "/src/main/A.java", 1, 1, "compiler.warn", "careful")))
+                .tests(Collections.singletonList(test))
+                .text("Tests in " + first.getAbsolutePath() + "/src/test")
+                .build();
+
+        cache.put(cache.key(request(first, "junit")), "junit", first, result, null);
+        JobResult cached = cache.get(cache.key(request(second, "junit")), second);
+
+        assertEquals(JobResult.Status.TESTS_FAILED, cached.getStatus());
+        assertEquals(Boolean.TRUE, cached.getCached());
+        assertEquals(Integer.valueOf(1), cached.getExitCode());
+        assertEquals("Tests in " + second.getAbsolutePath() + "/src/test", cached.getText());
+        assertEquals(second.getAbsolutePath() + "/src/main/A.java", cached.getDiagnostics().get(0).getSource());
+        assertEquals("ATest.works", cached.getTests().get(0).getTestName());
+        assertEquals(3, cached.getTests().get(0).getDuration());
+    }
+
+    @Test
+    public void keysResultsOnTheSourcesAsCompiled() throws Exception {
+        ResultCache cache = cache(1024 * 1024, 0);
+        File first = project("first", "class A {}");
+        File second = project("second", "class A {}");
+        Map<String, String> compiled = ResultCache.sources(first);
+        Files.write(new File(first, "src/main/A.java").toPath(), "class A { int b; }".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(cache.key(request(second, "jar")), cache.key(request(first, "jar"), compiled));
+        assertNotEquals(cache.key(request(second, "jar")), cache.key(request(first, "jar")));
+    }
+
+    @Test
+    public void writesTheCachedJarIntoTheAskingProject() throws Exception {
+        File first = project("first", "class A {}");
+        File second = project("second", "class A {}");
+        byte[] jar = "not really a jar".getBytes(StandardCharsets.UTF_8);
+        // Already replaced in the project by the jar of another job
+        Files.write(new File(first, "output.jar").toPath(), "another jar".getBytes(StandardCharsets.UTF_8));
+        String artifact = first.getAbsolutePath() + "/output.jar";
+        JobResult result = new JobResult.Builder().artifact(artifact).text(artifact).build();
+        ResultCache cache = cache(1024 * 1024, 1024 * 1024);
+        cache.put(cache.key(request(first, "jar")), "jar", first, result, jar);
+
+        // A new worker finds it on disk
+        ResultCache restarted = cache(1024 * 1024, 1024 * 1024);
+        JobResult cached = restarted.get(restarted.key(request(second, "jar")), second);
+
+        assertEquals(second.getAbsolutePath() + "/output.jar", cached.getArtifact());
+        assertArrayEquals(jar, Files.readAllBytes(new File(second, "output.jar").toPath()));
+    }
+
+    @Test
+    public void concurrentHitsOnTheSameProjectEachWriteTheWholeJar() throws Exception {
+        File first = project("first", "class A {}");
+        File second = project("second", "class A {}");
+        byte[] jar = new byte[256 * 1024];
+        Arrays.fill(jar, (byte) 7);
+        String artifact = first.getAbsolutePath() + "/output.jar";
+        ResultCache cache = cache(1024 * 1024, 0);
+        cache.put(cache.key(request(first, "jar")), "jar", first, new JobResult.Builder().artifact(artifact).build(),
+                jar);
+        String key = cache.key(request(second, "jar"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<JobResult>> hits = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                hits.add(executor.submit(() -> cache.get(key, second)));
+            }
+            for (Future<JobResult> hit : hits) {
+                assertEquals(second.getAbsolutePath() + "/output.jar", hit.get().getArtifact());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertArrayEquals(jar, Files.readAllBytes(new File(second, "output.jar").toPath()));
+        assertEquals(0, second.listFiles((dir, name) -> name.endsWith(".part")).length);
+    }
+
+    @Test
+    public void onlyKeepsResultsThatDoNotDependOnTheRun() {
+        ResultCache cache = cache(1024 * 1024, 0);
+
+        assertTrue(cache.isReusable("run", status(JobResult.Status.COMPILATION_FAILED)));
+        assertFalse(cache.isReusable("run", status(JobResult.Status.SUCCESS)));
+        assertTrue(cache.isReusable("junit", status(JobResult.Status.TESTS_FAILED)));
+        assertFalse(cache.isReusable("junit", status(JobResult.Status.LIMIT_EXCEEDED)));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedResults() throws Exception {
+        ResultCache cache = cache(1500, 0);
+        File project = project("project", "class A {}");
+        String text = new String(new char[500]).replace('\0', 'x');
+
+        cache.put("a", "junit", project, new JobResult.Builder().text(text).build(), null);
+        cache.put("b", "junit", project, new JobResult.Builder().text(text).build(), null);
+        cache.get("a", project);
+        cache.put("c", "junit", project, new JobResult.Builder().text(text).build(), null);
+
+        assertEquals(text, cache.get("a", project).getText());
+        assertNull(cache.get("b", project));
+    }
+
+    private ResultCache cache(long maxBytes, long maxDiskBytes) {
+        return new ResultCache(libraries, Arrays.asList("jar", "test", "junit"), maxBytes,
+                new File(folder.getRoot(), "cache"), maxDiskBytes);
+    }
+
+    private File project(String name, String source) throws IOException {
+        File project = folder.newFolder(name);
+        File file = new File(project, "src/main/A.java");
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        return project;
+    }
+
+    private static JobRequest request(File project, String action) throws InvalidJobRequestException {
+        String json = "{\"projectPath\": \"" + project.getAbsolutePath() + "\", \"action\": \"" + action + "\"}";
+        return JobRequest.decode(json.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    private static JobResult status(JobResult.Status status) {
+        return new JobResult.Builder().status(status).build();
+    }
+}
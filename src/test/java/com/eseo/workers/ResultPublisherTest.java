@@ -0,0 +1,134 @@
+package com.eseo.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmCallback;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+
+public class ResultPublisherTest {
+
+    private final List<String> bodies = Collections.synchronizedList(new ArrayList<>());
+    private ConfirmCallback ackCallback;
+    private ConfirmCallback nackCallback;
+    private ShutdownListener shutdownListener;
+    private long nextSeqNo = 1;
+
+    private final Channel channel = (Channel) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { Channel.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                case "addConfirmListener":
+                    if (args.length == 2) {
+                        ackCallback = (ConfirmCallback) args[0];
+                        nackCallback = (ConfirmCallback) args[1];
+                    }
+                    return null;
+                case "addShutdownListener":
+                    shutdownListener = (ShutdownListener) args[0];
+                    return null;
+                case "getNextPublishSeqNo":
+                    return nextSeqNo;
+                case "basicPublish":
+                    nextSeqNo++;
+                    bodies.add(new String((byte[]) args[3], StandardCharsets.UTF_8));
+                    return null;
+                default:
+                    return null;
+                }
+            });
+
+    @Test
+    public void completesOnceTheBrokerConfirms() throws Exception {
+        ResultPublisher publisher = new ResultPublisher(channel, true, 60000, 3);
+        CompletableFuture<Void> first = publisher.publish("a", null, bytes("1"));
+        CompletableFuture<Void> second = publisher.publish("b", null, bytes("2"));
+        CompletableFuture<Void> third = publisher.publish("c", null, bytes("3"));
+        assertFalse(first.isDone());
+
+        // One multiple ack confirms every result up to its tag
+        ackCallback.handle(2, true);
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+
+        ackCallback.handle(3, false);
+        third.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void publishesRejectedResultsAgain() throws Exception {
+        ResultPublisher publisher = new ResultPublisher(channel, true, 60000, 3);
+        CompletableFuture<Void> result = publisher.publish("a", null, bytes("1"));
+
+        nackCallback.handle(1, false);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bodies.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, bodies.size());
+        ackCallback.handle(2, false);
+        result.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void publishesUnconfirmedResultsAgainOnARecoveredChannel() throws Exception {
+        ResultPublisher publisher = new ResultPublisher(channel, true, 60000, 3);
+        CompletableFuture<Void> lost = publisher.publish("a", null, bytes("1"));
+
+        // The recovered channel numbers its publishes from 1 again
+        shutdownListener.shutdownCompleted(new ShutdownSignalException(true, false, null, channel));
+        nextSeqNo = 1;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bodies.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, bodies.size());
+        CompletableFuture<Void> next = publisher.publish("b", null, bytes("2"));
+        ackCallback.handle(1, false);
+
+        lost.get(1, TimeUnit.SECONDS);
+        assertFalse(next.isDone());
+    }
+
+    @Test
+    public void doesNotPublishAgainAResultGivenUp() throws Exception {
+        ResultPublisher publisher = new ResultPublisher(channel, true, 60000, 3);
+        CompletableFuture<Void> partial = publisher.publish("a", null, bytes("1"));
+
+        partial.cancel(false);
+        nackCallback.handle(1, false);
+        Thread.sleep(300);
+
+        assertEquals(1, bodies.size());
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void failsAfterTheLastAttempt() throws Exception {
+        ResultPublisher publisher = new ResultPublisher(channel, true, 20, 2);
+        CompletableFuture<Void> result = publisher.publish("a", null, bytes("1"));
+
+        try {
+            result.get(5, TimeUnit.SECONDS);
+        } finally {
+            assertEquals(2, bodies.size());
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,189 @@
+package com.eseo.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+
+public class ResultStreamTest {
+
+    private final List<AMQP.BasicProperties> properties = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> bodies = Collections.synchronizedList(new ArrayList<>());
+
+    private final Channel channel = (Channel) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { Channel.class }, (proxy, method, args) -> {
+                if (method.getName().equals("basicPublish")) {
+                    properties.add((AMQP.BasicProperties) args[2]);
+                    bodies.add(new String((byte[]) args[3], StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+
+    private ResultPublisher publisher;
+
+    @Before
+    public void setUp() throws Exception {
+        publisher = new ResultPublisher(channel, false, 1000, 3);
+    }
+
+    @Test
+    public void publishesOnlyTheFinalResultWhenNotStreaming() throws Exception {
+        try (ResultStream results = new ResultStream(publisher, "req", false, ResultFormat.TEXT, 4, 60000, 1024, 0)) {
+            print(results, "ignored");
+            results.finish(text("done"));
+        }
+
+        assertEquals(1, bodies.size());
+        assertEquals("done", bodies.get(0));
+        assertEquals("text/plain; charset=utf-8", properties.get(0).getContentType());
+        assertNull(properties.get(0).getContentEncoding());
+    }
+
+    @Test
+    public void neverCompressesTextResults() throws Exception {
+        try (ResultStream results = new ResultStream(publisher, "req", false, ResultFormat.TEXT, 4, 60000, 1024, 1)) {
+            results.finish(text("done"));
+        }
+
+        assertEquals("done", bodies.get(0));
+        assertNull(properties.get(0).getContentEncoding());
+    }
+
+    @Test
+    public void batchesOutputBySizeAndType() throws Exception {
+        try (ResultStream results = new ResultStream(publisher, "req", true, ResultFormat.TEXT, 8, 60000, 1024, 0)) {
+            print(results, "abc");
+            print(results, "def");
+            print(results, "ghi");
+            byte[] error = "oops".getBytes(StandardCharsets.UTF_8);
+            results.error(error, 0, error.length);
+            results.finish(text("done"));
+        }
+
+        assertEquals(3, bodies.size());
+        assertEquals("abcdefghi", bodies.get(0));
+        assertEquals("oops", bodies.get(1));
+        assertEquals("done", bodies.get(2));
+        for (int i = 0; i < properties.size(); i++) {
+            assertEquals((long) i, properties.get(i).getHeaders().get("seq"));
+        }
+        assertEquals("stderr", properties.get(1).getHeaders().get("type"));
+        assertEquals(false, properties.get(1).getHeaders().get("final"));
+        assertEquals(true, properties.get(2).getHeaders().get("final"));
+    }
+
+    @Test
+    public void publishesWaitingOutputAfterTheBatchDelay() throws Exception {
+        try (ResultStream results = new ResultStream(publisher, "req", true, ResultFormat.TEXT, 1024, 20, 1024, 0)) {
+            print(results, "slow");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (bodies.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            results.finish(text("done"));
+        }
+
+        assertEquals("slow", bodies.get(0));
+        assertEquals("stdout", properties.get(0).getHeaders().get("type"));
+    }
+
+    @Test
+    public void encodesStructuredResultsAndCompressesLargeOnes() throws Exception {
+        List<byte[]> raw = Collections.synchronizedList(new ArrayList<>());
+        Channel rawChannel = (Channel) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Channel.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("basicPublish")) {
+                        properties.add((AMQP.BasicProperties) args[2]);
+                        raw.add((byte[]) args[3]);
+                    }
+                    return null;
+                });
+        ResultPublisher rawPublisher = new ResultPublisher(rawChannel, false, 1000, 3);
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            output.append("line ").append(i).append('\n');
+        }
+        JobResult result = new JobResult.Builder()
+                .status(JobResult.Status.RUN_FAILED)
+                .exitCode(1)
+                .output(output.toString())
+                .text("legacy")
+                .build();
+        try (ResultStream results = new ResultStream(rawPublisher, "req", false, ResultFormat.JSON, 4, 60000, 1024,
+                1024)) {
+            results.finish(result);
+        }
+
+        assertEquals("application/json", properties.get(0).getContentType());
+        assertEquals("gzip", properties.get(0).getContentEncoding());
+        JsonNode json;
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(raw.get(0)))) {
+            json = new ObjectMapper().readTree(in);
+        }
+        assertEquals(JobResult.VERSION, json.get("version").asInt());
+        assertEquals("RUN_FAILED", json.get("status").asText());
+        assertEquals(1, json.get("exitCode").asInt());
+        assertEquals(output.toString(), json.get("output").asText());
+        assertFalse(json.has("text"));
+        assertTrue(raw.get(0).length < output.length() / 2);
+    }
+
+    @Test
+    public void slowBrokerDoesNotBlockTheStream() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ResultSink slow = (routingKey, properties, body) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return CompletableFuture.completedFuture(null);
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (ResultStream results = new ResultStream(slow, "req", true, ResultFormat.TEXT, 1, 60_000, 1024, 0)) {
+            // Publishing the first batch blocks in the broker
+            executor.submit(() -> print(results, "first"));
+            Thread.sleep(100);
+
+            Future<?> next = executor.submit(() -> results.getDiagnostics());
+            next.get(5, TimeUnit.SECONDS);
+            release.countDown();
+            results.finish(text("done"));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static JobResult text(String text) {
+        return new JobResult.Builder().text(text).build();
+    }
+
+    private static void print(ResultStream results, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        results.output(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,175 @@
+package com.eseo.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RunnerPoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final JavaCompilerEngine engine = new JavaCompilerEngine(JavaCompilerEngine.Mode.IN_PROCESS);
+    private static final List<File> JUNIT = Collections.singletonList(
+            new File("JavaTestProject/lib/junit-platform-console-standalone 1.10.0.jar"));
+
+    private final JobLimits limits = new JobLimits(30_000, 30_000, 128, 1024 * 1024);
+    private RunnerPool pool;
+
+    @Before
+    public void createPool() throws IOException {
+        // A single runner, used by every run unless it is retired
+        pool = new RunnerPool(1, 10, Arrays.asList("-Xmx64m", "-XX:+UseSerialGC"), 0.9,
+                new ClassDataArchives(folder.newFolder("cds"), false, 1));
+    }
+
+    @After
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void reusedRunnerDoesNotSeeWhatThePreviousProgramChanged() throws Exception {
+        Map<String, byte[]> changer = compile("Changer", "System.out.println(ProcessHandle.current().pid());"
+                + " System.setProperty(\"student\", \"changed\");"
+                + " java.util.Locale.setDefault(java.util.Locale.JAPAN);"
+                + " java.util.TimeZone.setDefault(java.util.TimeZone.getTimeZone(\"Asia/Tokyo\"));"
+                + " System.setOut(new java.io.PrintStream(new java.io.ByteArrayOutputStream()));"
+                + " System.setErr(System.out);");
+        Map<String, byte[]> reader = compile("Reader", "System.out.println(ProcessHandle.current().pid());"
+                + " System.out.println(System.getProperty(\"student\"));"
+                + " System.out.println(java.util.Locale.getDefault().equals(java.util.Locale.JAPAN));"
+                + " System.out.println(java.util.TimeZone.getDefault().getID());"
+                + " System.err.println(\"error\");");
+
+        RunOutcome changed = pool.run("Changer", Collections.emptyList(), changer, limits, RunListener.NONE);
+        RunOutcome read = pool.run("Reader", Collections.emptyList(), reader, limits, RunListener.NONE);
+
+        assertEquals(0, changed.getExitCode());
+        assertEquals(0, read.getExitCode());
+        String[] lines = read.getOutput().split("\\R");
+        assertEquals(changed.getOutput().trim(), lines[0]);
+        assertEquals("null", lines[1]);
+        assertEquals("false", lines[2]);
+        assertNotEquals("Asia/Tokyo", lines[3]);
+        assertEquals("error", read.getError().trim());
+    }
+
+    @Test
+    public void runnerIsRetiredWhenAThreadOfTheProgramOutlivesIt() throws Exception {
+        // A daemon that hides its class loader is still a leak
+        Map<String, byte[]> leaker = compile("Leaker", "System.out.println(ProcessHandle.current().pid());"
+                + " Thread thread = new Thread(() -> { try { Thread.sleep(60_000); } catch (Exception e) { } });"
+                + " thread.setDaemon(true); thread.setContextClassLoader(null); thread.start();");
+        Map<String, byte[]> printer = compile("Printer", "System.out.println(ProcessHandle.current().pid());");
+
+        RunOutcome leaked = pool.run("Leaker", Collections.emptyList(), leaker, limits, RunListener.NONE);
+        RunOutcome printed = pool.run("Printer", Collections.emptyList(), printer, limits, RunListener.NONE);
+
+        assertEquals(0, leaked.getExitCode());
+        assertNotEquals(leaked.getOutput().trim(), printed.getOutput().trim());
+    }
+
+    @Test
+    public void programCannotForgeFramesOnItsStdout() throws Exception {
+        // The exit frame of a run that returned 7, then a corrupted stdout frame of almost 2GB
+        Map<String, byte[]> forger = compile("Forger", "try {"
+                + " java.io.FileOutputStream out = new java.io.FileOutputStream(java.io.FileDescriptor.out);"
+                + " out.write(new byte[] { 3, 0, 0, 0, 7, 0, 1, 0x7f, -1, -1, -1 }); out.flush();"
+                + " } catch (Exception e) { } System.out.println(\"done\");");
+
+        RunOutcome forged = pool.run("Forger", Collections.emptyList(), forger, limits, RunListener.NONE);
+
+        assertEquals(0, forged.getExitCode());
+        assertTrue(forged.getOutput().contains("done"));
+        assertFalse(forged.getError().contains("corrupted"));
+    }
+
+    @Test
+    public void givingUpOnTestShardsKillsTheirRunners() throws Exception {
+        Map<String, byte[]> classes = compile("SleepTest", "public class SleepTest {"
+                + " @org.junit.jupiter.api.Test public void sleeps() throws Exception {"
+                + " System.out.println(ProcessHandle.current().pid()); Thread.sleep(60_000); } }",
+                Arrays.asList("-cp", JUNIT.get(0).getPath()));
+        List<Long> pids = Collections.synchronizedList(new ArrayList<>());
+        RunListener listener = new RunListener() {
+            @Override
+            public void output(byte[] bytes, int offset, int length) {
+                pids.add(Long.parseLong(new String(bytes, offset, length, StandardCharsets.UTF_8).trim()));
+            }
+        };
+        Thread job = new Thread(() -> {
+            try {
+                pool.runTestShards(Arrays.asList(Collections.singletonList("SleepTest"),
+                        Collections.singletonList("SleepTest")), JUNIT, classes, limits, listener);
+            } catch (IOException | InterruptedException e) {
+                // Given up on below
+            }
+        });
+        job.start();
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (pids.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertFalse(pids.isEmpty());
+
+        job.interrupt();
+        job.join(10_000);
+
+        assertFalse(job.isAlive());
+        ProcessHandle runner = ProcessHandle.of(pids.get(0)).orElse(null);
+        if (runner != null) {
+            runner.onExit().get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testsSeeTheirLibrariesButNotTheWorker() throws Exception {
+        Map<String, byte[]> classes = compile("HiddenTest", "public class HiddenTest {"
+                + " @org.junit.jupiter.api.Test public void cannotReachTheRunner() {"
+                + " org.junit.jupiter.api.Assertions.assertThrows(ClassNotFoundException.class,"
+                + " () -> Class.forName(\"com.eseo.workers.RunnerMain\")); } }",
+                Arrays.asList("-cp", JUNIT.get(0).getPath()));
+
+        RunOutcome outcome = pool.runTests(Collections.singletonList("HiddenTest"), JUNIT, classes, limits,
+                RunListener.NONE);
+
+        assertEquals(outcome.getError(), 0, outcome.getExitCode());
+        assertEquals(1, outcome.getTestResults().size());
+        assertEquals("SUCCESS", outcome.getTestResults().get(0).getStatus());
+    }
+
+    private Map<String, byte[]> compile(String className, String body) throws IOException, InterruptedException {
+        return compile(className, "public class " + className + " { public static void main(String[] args) { "
+                + body + " } }", Collections.<String>emptyList());
+    }
+
+    private Map<String, byte[]> compile(String className, String code, List<String> options)
+            throws IOException, InterruptedException {
+        File source = new File(folder.newFolder(className), className + ".java");
+        Files.write(source.toPath(), code.getBytes(StandardCharsets.UTF_8));
+        CompiledClasses classes = new CompiledClasses();
+        CompilationResult compilation = engine.compile(options, Collections.singletonList(source),
+                source.getParentFile(), classes);
+        assertEquals(compilation.getOutput(), 0, compilation.getExitCode());
+        return classes.asMap();
+    }
+}
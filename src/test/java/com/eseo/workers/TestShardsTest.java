@@ -0,0 +1,58 @@
+package com.eseo.workers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.eseo.workers.JobWorker.TestResult;
+
+public class TestShardsTest {
+
+    @Test
+    public void smallSuitesStayInOneShard() {
+        List<String> testClasses = Arrays.asList("a.ATest", "a.BTest", "a.CTest");
+
+        assertEquals(Collections.singletonList(testClasses), new TestShards(4, 2).split(testClasses));
+    }
+
+    @Test
+    public void unknownClassesAreSpreadEvenly() {
+        List<List<String>> shards = new TestShards(3, 2).split(classes(7));
+
+        assertEquals(3, shards.size());
+        assertEquals(3, shards.get(0).size());
+        assertEquals(2, shards.get(1).size());
+        assertEquals(2, shards.get(2).size());
+    }
+
+    @Test
+    public void balancesShardsOnPreviousDurations() {
+        TestShards testShards = new TestShards(2, 1);
+        List<String> testClasses = Arrays.asList("a.SlowTest", "a.ATest", "a.BTest", "a.CTest");
+        testShards.record(testClasses, Arrays.asList(
+                result("SlowTest.first()", 900), result("SlowTest.second()", 600),
+                result("ATest.test()", 500), result("BTest.test()", 500), result("CTest.test()", 500)));
+
+        List<List<String>> shards = testShards.split(testClasses);
+
+        assertEquals(Collections.singletonList("a.SlowTest"), shards.get(0));
+        assertEquals(Arrays.asList("a.ATest", "a.BTest", "a.CTest"), shards.get(1));
+    }
+
+    private static List<String> classes(int count) {
+        List<String> classes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            classes.add("a.Test" + i);
+        }
+        return classes;
+    }
+
+    private static TestResult result(String testName, long duration) {
+        return new TestResult.Builder().testName(testName).status("SUCCESS").duration(duration).build();
+    }
+}
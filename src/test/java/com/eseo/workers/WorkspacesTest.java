@@ -0,0 +1,73 @@
+package com.eseo.workers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WorkspacesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void smallProjectsBuildOnTmpfs() throws Exception {
+        File disk = new File(folder.getRoot(), "disk");
+        File tmpfs = new File(folder.getRoot(), "tmpfs");
+        File project = project(100);
+        Workspaces workspaces = new Workspaces(disk, tmpfs, 1000);
+
+        try (Workspaces.Workspace small = workspaces.create(project)) {
+            assertEquals(tmpfs, small.getDir().getParentFile());
+        }
+        try (Workspaces.Workspace large = workspaces.create(project(2000))) {
+            assertEquals(disk, large.getDir().getParentFile());
+        }
+    }
+
+    @Test
+    public void publishesBuiltFilesIntoTheProjectAndCleansUp() throws Exception {
+        File project = project(10);
+        File jar = new File(project, "output.jar");
+        Files.write(jar.toPath(), bytes("previous"));
+        Workspaces workspaces = new Workspaces(new File(folder.getRoot(), "disk"), null, 0);
+
+        File dir;
+        try (Workspaces.Workspace workspace = workspaces.create(project)) {
+            dir = workspace.getDir();
+            File built = workspace.file("output.jar");
+            Files.write(built.toPath(), bytes("built"));
+            new File(dir, "classes/com/example").mkdirs();
+            Files.write(new File(dir, "classes/com/example/Main.class").toPath(), bytes("main"));
+
+            workspace.publish(built, jar);
+
+            assertFalse(built.exists());
+        }
+
+        assertArrayEquals(bytes("built"), Files.readAllBytes(jar.toPath()));
+        assertFalse(dir.exists());
+        assertTrue(new File(project, "src/Main.java").isFile());
+    }
+
+    private File project(int libraryBytes) throws Exception {
+        File project = folder.newFolder();
+        new File(project, "src").mkdirs();
+        new File(project, "lib").mkdirs();
+        Files.write(new File(project, "src/Main.java").toPath(), bytes("public class Main { }"));
+        Files.write(new File(project, "lib/library.jar").toPath(), new byte[libraryBytes]);
+        return project;
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+}